@@ -0,0 +1,146 @@
+package com.einmalfel.podlisten;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures latency of playlist query while another thread writes episodes in sync-sized batches,
+ * with and without write-ahead logging. Logs percentiles, fails if WAL doesn't reduce tail latency.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProviderWalBenchmark {
+  private static final String TAG = "WBM";
+  private static final String DB_NAME = "wal_benchmark.db";
+  private static final int INITIAL_EPISODES = 2000;
+  /** Same as SyncWorker.WRITE_BATCH_SIZE */
+  private static final int WRITE_BATCH_SIZE = 50;
+  private static final int QUERIES = 300;
+  private static final String QUERY = "SELECT " + Provider.K_ID + ", " + Provider.K_ENAME + ", " +
+      Provider.K_ESDESCR + " FROM " + Provider.T_EPISODE + " WHERE " + Provider.K_ESTATE + " == " +
+      Provider.ESTATE_IN_PLAYLIST + " ORDER BY " + Provider.K_EDATE + " LIMIT 100";
+
+  private Context context;
+  private Provider.HelperV1 helper;
+  private long nextId = 1;
+
+  @Before
+  public void setUp() {
+    context = InstrumentationRegistry.getTargetContext();
+    context.deleteDatabase(DB_NAME);
+  }
+
+  @After
+  public void tearDown() {
+    if (helper != null) {
+      helper.close();
+    }
+    context.deleteDatabase(DB_NAME);
+  }
+
+  @Test
+  public void walReducesReadLatencyUnderWriteLoad() throws InterruptedException {
+    long[] rollbackJournal = measure(false);
+    long[] wal = measure(true);
+    log("rollback journal", rollbackJournal);
+    log("WAL", wal);
+    assertTrue("WAL doesn't reduce 95th percentile of read latency",
+               percentile(wal, 95) < percentile(rollbackJournal, 95));
+  }
+
+  /** @return sorted latencies of {@link #QUERIES} reads run during write load [ns] */
+  @NonNull
+  private long[] measure(boolean wal) throws InterruptedException {
+    if (helper != null) {
+      helper.close();
+      context.deleteDatabase(DB_NAME);
+    }
+    helper = new Provider.HelperV1(context, DB_NAME);
+    final SQLiteDatabase db = helper.getWritableDatabase();
+    if (!wal) {
+      db.disableWriteAheadLogging();
+    }
+    for (int i = 0; i < INITIAL_EPISODES / WRITE_BATCH_SIZE; i++) {
+      writeBatch(db);
+    }
+
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!stop.get()) {
+          writeBatch(db);
+        }
+      }
+    });
+    writer.start();
+    long[] latencies = new long[QUERIES];
+    try {
+      for (int i = 0; i < QUERIES; i++) {
+        long start = System.nanoTime();
+        Cursor cursor = db.rawQuery(QUERY, null);
+        try {
+          // cursor window is filled on first access
+          cursor.getCount();
+        } finally {
+          cursor.close();
+        }
+        latencies[i] = System.nanoTime() - start;
+      }
+    } finally {
+      stop.set(true);
+      writer.join();
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+
+  /** Inserts a batch the way SyncDbWriter does: in a single non-exclusive transaction */
+  private void writeBatch(@NonNull SQLiteDatabase db) {
+    db.beginTransactionNonExclusive();
+    try {
+      for (int i = 0; i < WRITE_BATCH_SIZE; i++) {
+        long id = nextId++;
+        ContentValues values = new ContentValues();
+        values.put(Provider.K_ID, id);
+        values.put(Provider.K_ENAME, "Episode " + id);
+        values.put(Provider.K_ESDESCR, "Short description of episode " + id);
+        values.put(Provider.K_EDESCR, "Description of episode " + id);
+        values.put(Provider.K_ESTATE, id % 4 == 0 ? Provider.ESTATE_IN_PLAYLIST :
+            Provider.ESTATE_GONE);
+        values.put(Provider.K_EDATE, id * 1000);
+        values.put(Provider.K_EPID, 1);
+        db.insertOrThrow(Provider.T_EPISODE, null, values);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private static long percentile(@NonNull long[] sorted, int percent) {
+    return sorted[(sorted.length - 1) * percent / 100];
+  }
+
+  private static void log(@NonNull String mode, @NonNull long[] sorted) {
+    Log.i(TAG, String.format(Locale.US, "%s: median %.3f ms, 95%% %.3f ms, max %.3f ms", mode,
+                             percentile(sorted, 50) / 1e6, percentile(sorted, 95) / 1e6,
+                             sorted[sorted.length - 1] / 1e6));
+  }
+}
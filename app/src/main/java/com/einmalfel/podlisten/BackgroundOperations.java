@@ -2,12 +2,12 @@ package com.einmalfel.podlisten;
 
 import android.app.DownloadManager;
 import android.app.IntentService;
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.media.MediaMetadataRetriever;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
@@ -18,6 +18,8 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 
 public class BackgroundOperations extends IntentService {
@@ -28,13 +30,22 @@ public class BackgroundOperations extends IntentService {
 
   private static final String EXTRA_EPISODE_STATE = "com.einmalfel.podlisten.EPISODE_STATE";
 
+  /**
+   * Episode states whose cleanup is queued, but not started yet. Callers run in several processes,
+   * so duplicates are detected here, in the service process
+   */
+  private final Set<Integer> pendingCleanups = new HashSet<>();
+
   public static void handleDownloads(Context context) {
     Intent intent = new Intent(context, BackgroundOperations.class);
     intent.setAction(ACTION_HANDLE_DOWNLOADS);
     context.startService(intent);
   }
 
-  /** deletes episodes whose state == stateFilter */
+  /**
+   * deletes episodes whose state == stateFilter. Request is dropped if cleanup of the same state is
+   * already queued and not started yet, as that cleanup will process the same episodes
+   */
   public static void cleanupEpisodes(@NonNull Context context, int stateFilter) {
     Intent intent = new Intent(context, BackgroundOperations.class);
     intent.setAction(ACTION_CLEANUP_EPISODES);
@@ -47,6 +58,21 @@ public class BackgroundOperations extends IntentService {
     setIntentRedelivery(true);
   }
 
+  @Override
+  public int onStartCommand(Intent intent, int flags, int startId) {
+    if (intent != null && ACTION_CLEANUP_EPISODES.equals(intent.getAction())) {
+      int state = intent.getIntExtra(EXTRA_EPISODE_STATE, Provider.ESTATE_GONE);
+      synchronized (pendingCleanups) {
+        if (!pendingCleanups.add(state)) {
+          Log.d(TAG, "Cleanup of episodes in state " + state + " is already pending");
+          // still queued as empty intent, so that service stops itself after the last one
+          intent = null;
+        }
+      }
+    }
+    return super.onStartCommand(intent, flags, startId);
+  }
+
   @Override
   protected void onHandleIntent(Intent intent) {
     if (intent != null) {
@@ -54,7 +80,12 @@ public class BackgroundOperations extends IntentService {
       Log.i(TAG, "Processing " + action);
       switch (action) {
         case ACTION_CLEANUP_EPISODES:
-          cleanupEpisodes(intent.getIntExtra(EXTRA_EPISODE_STATE, Provider.ESTATE_GONE));
+          int state = intent.getIntExtra(EXTRA_EPISODE_STATE, Provider.ESTATE_GONE);
+          // changes made from now on need another cleanup
+          synchronized (pendingCleanups) {
+            pendingCleanups.remove(state);
+          }
+          cleanupEpisodes(state);
           break;
         case ACTION_HANDLE_DOWNLOADS:
           handleDownloads();
@@ -67,73 +98,37 @@ public class BackgroundOperations extends IntentService {
   }
 
   private void cleanupEpisodes(int stateFilter) {
-    ContentResolver resolver = getContentResolver();
-    String where = Provider.K_ESTATE + " == " + stateFilter;
-    if (stateFilter == Provider.ESTATE_GONE) {
-      // only process ones that aren't included in feed anymore OR have media associated with them
-      where += " AND (" + Provider.K_PTSTAMP + " IS NULL OR " + Provider.K_ETSTAMP + " < " +
-          Provider.K_PTSTAMP + " OR " + Provider.K_EDFIN + " != 0 OR " + Provider.K_EDID + " != 0)";
+    // DB part is done by provider at once, media of processed episodes is deleted here
+    Bundle result = getContentResolver().call(Provider.baseUri,
+                                              Provider.METHOD_CLEANUP_EPISODES,
+                                              Integer.toString(stateFilter),
+                                              null);
+    if (result == null) {
+      Log.wtf(TAG, "Provider cleanup returned null");
+      return;
     }
-    Cursor cursor = resolver.query(
-        Provider.episodeJoinPodcastUri,
-        new String[]{Provider.K_EID, Provider.K_ETSTAMP, Provider.K_PTSTAMP, Provider.K_EDID},
-        where,
-        null,
-        null
-    );
-    if (cursor == null) {
-      Log.wtf(TAG, "Provider query returned null");
+    long[] episodeIds = result.getLongArray(Provider.EXTRA_EPISODE_IDS);
+    long[] downloadIds = result.getLongArray(Provider.EXTRA_DOWNLOAD_IDS);
+    Log.i(TAG, "Cleaning up " + episodeIds.length + " episodes");
+    if (downloadIds.length > 0) {
+      DownloadManager dm = (DownloadManager) getSystemService(Context.DOWNLOAD_SERVICE);
+      dm.remove(downloadIds);
+      sendBroadcast(new Intent(DownloadReceiver.UPDATE_QUEUE_ACTION));
+    }
+    if (episodeIds.length == 0) {
       return;
     }
-    Log.i(TAG, "Cleaning up " + cursor.getCount() + " episodes");
-    DownloadManager dm = (DownloadManager) getSystemService(Context.DOWNLOAD_SERVICE);
-    boolean downloadsStopped = false;
-    while (cursor.moveToNext()) {
-      long episodeId = cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_ID));
-      // 1. Stop download if any
-      long dId = cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_EDID));
-      if (dId != 0) {
-        dm.remove(dId);
-        ContentValues val = new ContentValues(1);
-        val.put(Provider.K_EDID, 0);
-        if (resolver.update(Provider.getUri(Provider.T_EPISODE, episodeId), val, null, null) != 1) {
-          Log.w(TAG, "Failed to reset DID for episode " + episodeId);
-        }
-        downloadsStopped = true;
-      }
-      // 2. Delete audio and images related to this episode if any
-      Storage storage = Preferences.getInstance().getStorage();
-      if (storage == null || !storage.isAvailableRW()) {
-        Log.w(TAG, "failed to delete episode media: no storage or it isn't writable");
-        continue;
-      }
+    Storage storage = Preferences.getInstance().getStorage();
+    if (storage == null || !storage.isAvailableRW()) {
+      Log.w(TAG, "failed to delete episode media: no storage or it isn't writable");
+      return;
+    }
+    for (long episodeId : episodeIds) {
       File f = new File(storage.getPodcastDir(), Long.toString(episodeId));
       if (f.exists() && !f.delete()) {
         Log.w(TAG, "Failed to delete " + f.toURI());
       }
       ImageManager.getInstance().deleteImage(episodeId);
-      // 3. Set gone state or completely remove episode from db if it is already absent in the feed
-      // or feed itself is deleted (K_PTSTAMP column will contain null in latter case)
-      if (cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_ETSTAMP)) <
-          cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_PTSTAMP)) ||
-          cursor.isNull(cursor.getColumnIndexOrThrow(Provider.K_PTSTAMP))) {
-        Log.i(TAG, "Feed doesn't contain episode " + episodeId + " anymore. Deleting from db..");
-        if (resolver.delete(Provider.getUri(Provider.T_EPISODE, episodeId), null, null) != 1) {
-          Log.w(TAG, "Failed to delete " + episodeId + " from db");
-        }
-      } else {
-        ContentValues val = new ContentValues(3);
-        val.put(Provider.K_ESTATE, Provider.ESTATE_GONE);
-        val.put(Provider.K_EDFIN, 0);
-        val.put(Provider.K_EDID, 0);
-        if (resolver.update(Provider.getUri(Provider.T_EPISODE, episodeId), val, null, null) != 1) {
-          Log.w(TAG, "Failed to set GONE state for episode " + episodeId);
-        }
-      }
-    }
-    cursor.close();
-    if (downloadsStopped) {
-      sendBroadcast(new Intent(DownloadReceiver.UPDATE_QUEUE_ACTION));
     }
   }
 
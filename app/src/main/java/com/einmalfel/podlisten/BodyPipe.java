@@ -0,0 +1,132 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded in-memory pipe that streams feed body from the thread downloading it to the thread
+ * parsing it.
+ * <p/>
+ * Downloading thread blocks while the pipe is full, so slow parsing throttles download instead of
+ * buffering whole body. Both sides wait in short steps checking refresh deadline, so cancelled
+ * refresh doesn't hang on a stalled peer. Download errors are passed to the parsing side.
+ */
+class BodyPipe {
+  private static final int CHUNK_SIZE = 16 * 1024;
+  private static final int CAPACITY = 8;
+  private static final long POLL_PERIOD_MS = 500;
+  private static final byte[] EOF = new byte[0];
+
+  private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CAPACITY);
+  private final Deadline deadline;
+  private final Input input = new Input();
+  private volatile IOException failure;
+  private volatile boolean readerClosed = false;
+
+  BodyPipe(@NonNull Deadline deadline) {
+    this.deadline = deadline;
+  }
+
+  /** @return stream parsing thread reads. Closing it stops {@link #pump(InputStream)} */
+  @NonNull
+  InputStream getInput() {
+    return input;
+  }
+
+  /**
+   * Copies source to the pipe till its end, or until reader closes the pipe. Doesn't throw: read
+   * errors are reported to reader
+   */
+  void pump(@NonNull InputStream source) {
+    try {
+      while (true) {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int size = source.read(chunk);
+        if (size == -1) {
+          put(EOF);
+          return;
+        }
+        if (!put(size == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, size))) {
+          return;
+        }
+      }
+    } catch (IOException exception) {
+      failure = exception;
+    } catch (InterruptedException exception) {
+      failure = new InterruptedIOException("Feed download interrupted");
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException exception) {
+      failure = new IOException("Feed download failed", exception);
+      throw exception;
+    }
+  }
+
+  /** @return false if reader closed the pipe */
+  private boolean put(@NonNull byte[] chunk) throws InterruptedException, IOException {
+    while (!readerClosed) {
+      if (chunks.offer(chunk, POLL_PERIOD_MS, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+      deadline.check();
+    }
+    return false;
+  }
+
+  private class Input extends InputStream {
+    private byte[] current;
+    private int offset = 0;
+
+    /** @return false at the end of stream */
+    private boolean ensureData() throws IOException {
+      while (current == null || (current != EOF && offset == current.length)) {
+        if (readerClosed) {
+          throw new IOException("Stream closed");
+        }
+        try {
+          current = chunks.poll(POLL_PERIOD_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+          throw new InterruptedIOException("Feed parsing interrupted");
+        }
+        offset = 0;
+        if (current == null && failure != null) {
+          throw failure;
+        }
+        deadline.check();
+      }
+      return current != EOF;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return ensureData() ? current[offset++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int byteOffset, int byteCount) throws IOException {
+      if (byteCount == 0) {
+        return 0;
+      }
+      if (!ensureData()) {
+        return -1;
+      }
+      int count = Math.min(byteCount, current.length - offset);
+      System.arraycopy(current, offset, buffer, byteOffset, count);
+      offset += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      readerClosed = true;
+      // unblocks pumping thread waiting for free space
+      chunks.clear();
+    }
+  }
+}
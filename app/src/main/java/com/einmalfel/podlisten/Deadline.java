@@ -0,0 +1,80 @@
+package com.einmalfel.podlisten;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time limit of an operation.
+ * <p/>
+ * Code performing the operation checks it cooperatively, e.g. {@link HttpClient} limits timeouts
+ * by remaining time and checks deadline on each read. Deadline may be cancelled from other thread:
+ * this disconnects HTTP connections attached to it, aborting reads blocked on silent hosts.
+ */
+class Deadline {
+  static class ExceededException extends IOException {
+    ExceededException(String message) {
+      super(message);
+    }
+  }
+
+  private final long expiresAt;
+  private final List<HttpURLConnection> connections = new ArrayList<>(1);
+  private volatile boolean cancelled = false;
+
+  /** @param durationMs time left from now [ms] */
+  Deadline(long durationMs) {
+    expiresAt = SystemClock.elapsedRealtime() + durationMs;
+  }
+
+  long getRemainingMs() {
+    return cancelled ? 0 : Math.max(0, expiresAt - SystemClock.elapsedRealtime());
+  }
+
+  boolean isExpired() {
+    return getRemainingMs() == 0;
+  }
+
+  void check() throws ExceededException {
+    if (cancelled) {
+      throw new ExceededException("Operation cancelled");
+    }
+    if (isExpired()) {
+      throw new ExceededException("Operation deadline exceeded");
+    }
+  }
+
+  /** Expires deadline and disconnects attached connections */
+  void cancel() {
+    List<HttpURLConnection> toDisconnect;
+    synchronized (this) {
+      cancelled = true;
+      toDisconnect = new ArrayList<>(connections);
+      connections.clear();
+    }
+    // disconnect may block for a while, don't hold the lock meanwhile
+    for (HttpURLConnection connection : toDisconnect) {
+      connection.disconnect();
+    }
+  }
+
+  /** Connection will be disconnected if deadline is cancelled before it's detached */
+  void attach(@NonNull HttpURLConnection connection) throws ExceededException {
+    synchronized (this) {
+      if (!cancelled) {
+        connections.add(connection);
+        return;
+      }
+    }
+    connection.disconnect();
+    check();
+  }
+
+  synchronized void detach(@NonNull HttpURLConnection connection) {
+    connections.remove(connection);
+  }
+}
@@ -0,0 +1,152 @@
+package com.einmalfel.podlisten;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.Html;
+import android.text.Spanned;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads full HTML descriptions of episodes and podcasts on background thread and caches them.
+ * <p/>
+ * Lists don't query full descriptions, as they are long and only shown in expanded cards. Instead
+ * lists query {@link #lengthColumn} to know if there is a description, and load it from here when
+ * card gets expanded. Methods should be called from main thread, results are delivered there too.
+ */
+class DescriptionLoader {
+  interface Callback {
+    /** @param description parsed description or null if loading failed */
+    void onDescriptionLoaded(long id, @Nullable Spanned description);
+  }
+
+  /** Name of column returned by {@link #lengthColumn} */
+  static final String K_LENGTH = "description_length";
+  private static final String TAG = "DLD";
+  /** Cache size [chars] */
+  private static final int CACHE_SIZE = 256 * 1024;
+  private static DescriptionLoader instance;
+
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(@NonNull final Runnable runnable) {
+      return new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          runnable.run();
+        }
+      }, "DescriptionLoader");
+    }
+  });
+  private final LruCache<String, Spanned> cache = new LruCache<String, Spanned>(CACHE_SIZE) {
+    @Override
+    protected int sizeOf(String key, Spanned value) {
+      return value.length() + 1;
+    }
+  };
+  /** Callbacks of descriptions being loaded, by cache key */
+  private final Map<String, List<Callback>> pending = new HashMap<>();
+
+  @NonNull
+  static DescriptionLoader getInstance() {
+    if (instance == null) {
+      instance = new DescriptionLoader();
+    }
+    return instance;
+  }
+
+  /**
+   * @param descriptionColumn {@link Provider#K_EDESCR} or {@link Provider#K_PDESCR}
+   * @return projection column that gives description length in {@link #K_LENGTH}, without
+   * loading description itself into cursor
+   */
+  @NonNull
+  static String lengthColumn(@NonNull String descriptionColumn) {
+    return "length(" + descriptionColumn + ") AS " + K_LENGTH;
+  }
+
+  /**
+   * Short description is derived from full one, so it's a part of cache key: if description is
+   * changed by feed refresh, outdated cache entry won't be used
+   */
+  @NonNull
+  private static String getKey(@NonNull String table, long id, @Nullable String shortDescription) {
+    return table + '/' + id + '/' + (shortDescription == null ? 0 : shortDescription.hashCode());
+  }
+
+  /** @param table {@link Provider#T_EPISODE} or {@link Provider#T_PODCAST} */
+  @Nullable
+  Spanned getCached(@NonNull String table, long id, @Nullable String shortDescription) {
+    return cache.get(getKey(table, id, shortDescription));
+  }
+
+  /**
+   * Loads description in background, callback is called from main thread afterwards. Caller is
+   * responsible for checking if loaded description is still needed
+   */
+  void load(@NonNull final String table, final long id, @Nullable String shortDescription,
+            @NonNull Callback callback) {
+    final String key = getKey(table, id, shortDescription);
+    List<Callback> callbacks = pending.get(key);
+    if (callbacks != null) {
+      callbacks.add(callback);
+      return;
+    }
+    callbacks = new ArrayList<>(1);
+    callbacks.add(callback);
+    pending.put(key, callbacks);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final Spanned description = query(table, id);
+        handler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (description != null) {
+              cache.put(key, description);
+            }
+            for (Callback callback : pending.remove(key)) {
+              callback.onDescriptionLoaded(id, description);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  @Nullable
+  private static Spanned query(@NonNull String table, long id) {
+    String column = Provider.T_PODCAST.equals(table) ? Provider.K_PDESCR : Provider.K_EDESCR;
+    Cursor cursor = PodListenApp.getContext().getContentResolver().query(
+        Provider.getUri(table, id), new String[]{column}, null, null, null);
+    if (cursor == null) {
+      Log.e(TAG, "Provider query returned null");
+      return null;
+    }
+    try {
+      if (!cursor.moveToFirst() || cursor.isNull(0)) {
+        Log.w(TAG, "No description of " + table + " " + id);
+        return null;
+      }
+      return Html.fromHtml(cursor.getString(0));
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private DescriptionLoader() {}
+}
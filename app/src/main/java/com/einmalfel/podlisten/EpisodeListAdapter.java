@@ -21,8 +21,10 @@ public class EpisodeListAdapter extends CursorRecyclerAdapter<EpisodeViewHolder>
   }
 
   private static final String TAG = "ELA";
+  // full description is loaded by DescriptionLoader when card gets expanded
   static final String[] REQUIRED_DB_COLUMNS = new String[]{
-      Provider.K_EID, Provider.K_ENAME, Provider.K_EDESCR, Provider.K_EDFIN, Provider.K_ESIZE,
+      Provider.K_EID, Provider.K_ENAME, DescriptionLoader.lengthColumn(Provider.K_EDESCR),
+      Provider.K_EDFIN, Provider.K_ESIZE,
       Provider.K_ESTATE, Provider.K_PNAME, Provider.K_EPLAYED, Provider.K_ELENGTH, Provider.K_EDATE,
       Provider.K_EPID, Provider.K_ESDESCR, Provider.K_EERROR, Provider.K_EDID, Provider.K_EURL,
       Provider.K_EAURL};
@@ -75,7 +77,7 @@ public class EpisodeListAdapter extends CursorRecyclerAdapter<EpisodeViewHolder>
     long id = cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_ID));
     holder.bindEpisode(
         cursor.getString(cursor.getColumnIndexOrThrow(Provider.K_ENAME)),
-        cursor.getString(cursor.getColumnIndexOrThrow(Provider.K_EDESCR)),
+        cursor.getInt(cursor.getColumnIndexOrThrow(DescriptionLoader.K_LENGTH)) > 0,
         id,
         cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_EPID)),
         cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_ESIZE)),
@@ -8,7 +8,7 @@ import android.graphics.drawable.Drawable;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.RecyclerView;
-import android.text.Html;
+import android.text.Spanned;
 import android.text.TextUtils;
 import android.text.method.LinkMovementMethod;
 import android.view.View;
@@ -51,6 +51,14 @@ public class EpisodeViewHolder extends RecyclerView.ViewHolder {
   private int state;
   private String title;
   private String aURL;
+  private final DescriptionLoader.Callback descriptionCallback = new DescriptionLoader.Callback() {
+    @Override
+    public void onDescriptionLoaded(long id, Spanned description) {
+      if (id == EpisodeViewHolder.this.id && expanded && description != null) {
+        descriptionText.setText(description, TextView.BufferType.SPANNABLE);
+      }
+    }
+  };
 
   long getId() {
     return id;
@@ -131,10 +139,11 @@ public class EpisodeViewHolder extends RecyclerView.ViewHolder {
     dateText.setTextColor(color);
   }
 
-  public void bindEpisode(String title, String description, long id, long pid, long size, int state,
-                          String feedTitle, long played, long length, long date, int downloaded,
-                          String shortDescr, String errorMessage, PlayerService.State playerState,
-                          String url, long downloadId, String aURL, boolean expanded) {
+  public void bindEpisode(String title, boolean hasDescription, long id, long pid, long size,
+                          int state, String feedTitle, long played, long length, long date,
+                          int downloaded, String shortDescr, String errorMessage,
+                          PlayerService.State playerState, String url, long downloadId,
+                          String aURL, boolean expanded) {
     if (errorMessage == null) {
       episdoeUrlView.setText(TextUtils.isEmpty(url) ? aURL : url);
       episdoeUrlView.setTextColor(ContextCompat.getColor(
@@ -146,14 +155,21 @@ public class EpisodeViewHolder extends RecyclerView.ViewHolder {
 
     if (id != this.id || expanded != this.expanded) {
       titleText.setText(title);
-      if (description == null || description.isEmpty()) {
+      if (!hasDescription) {
         dividerBottom.setVisibility(View.GONE);
         descriptionText.setVisibility(View.GONE);
       } else {
-        if (expanded) {
-          descriptionText.setText(Html.fromHtml(description), TextView.BufferType.SPANNABLE);
+        DescriptionLoader loader = DescriptionLoader.getInstance();
+        Spanned description = expanded ?
+            loader.getCached(Provider.T_EPISODE, id, shortDescr) : null;
+        if (description != null) {
+          descriptionText.setText(description, TextView.BufferType.SPANNABLE);
         } else {
+          // if expanded, short description is shown till full one is loaded
           descriptionText.setText(shortDescr, TextView.BufferType.NORMAL);
+          if (expanded) {
+            loader.load(Provider.T_EPISODE, id, shortDescr, descriptionCallback);
+          }
         }
         dividerBottom.setVisibility(View.VISIBLE);
         descriptionText.setVisibility(View.VISIBLE);
@@ -2,32 +2,54 @@ package com.einmalfel.podlisten;
 
 import android.accounts.Account;
 import android.content.AbstractThreadedSyncAdapter;
+import android.content.BroadcastReceiver;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SyncResult;
 import android.database.Cursor;
 import android.os.Bundle;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
 import android.util.Log;
+import android.util.LongSparseArray;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class EpisodesSyncAdapter extends AbstractThreadedSyncAdapter {
   static final String FEED_ID_EXTRA_OPTION = "com.einmalfel.podlisten.FEED_ID";
+  /** If set, feeds are parsed from {@link FeedCache} copies instead of being downloaded */
+  static final String REPARSE_EXTRA_OPTION = "com.einmalfel.podlisten.REPARSE";
+  /** Moves feed given in {@link #FEED_ID_EXTRA_OPTION} to the head of running sync queue */
+  static final String PRIORITIZE_FEED_ACTION = "com.einmalfel.podlisten.PRIORITIZE_FEED";
 
   private static final String TAG = "SSA";
 
-  private static final int WORKERS_NUMBER = 3;
+  /** After this time sync discards queued feeds and aborts running ones [ms] */
+  private static final long SYNC_BUDGET = 15 * 60 * 1000;
+  /** Time given to aborted workers to finish [ms] */
+  private static final long CANCEL_GRACE_PERIOD = 30 * 1000;
+  /** Period of checking workers for deadline expiry [ms] */
+  private static final long WATCHDOG_PERIOD = 5 * 1000;
+  /** Feeds are parsed in parallel with downloads, by this number of threads */
+  private static final int PARSE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
 
-  private static final int SYNC_TIMEOUT = 30 * 60; // [s]
-
-  private static final String[] queryColumns = new String[]{
-      Provider.K_ID, Provider.K_PFURL, Provider.K_PSTATE, Provider.K_PTSTAMP, Provider.K_PRMODE};
+  // Feed refresh priority scores, see getFeedsOrder
+  private static final int PLAYLIST_SCORE = 2; // per playlist episode
+  private static final int PLAYING_SCORE = 4; // per partially played playlist episode
+  private static final int MAX_PLAYLIST_SCORE = 12;
+  private static final int RELEASE_EXPECTED_SCORE = 5;
+  private static final int FAILED_SCORE = -20;
 
   public EpisodesSyncAdapter(Context context, boolean autoInitialize) {
     super(context, autoInitialize);
@@ -38,6 +60,7 @@ public class EpisodesSyncAdapter extends AbstractThreadedSyncAdapter {
                             ContentProviderClient provider, SyncResult syncResult) {
     Boolean manualSync = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
     Long requestedId = extras.getLong(FEED_ID_EXTRA_OPTION, 0);
+    boolean reparse = extras.getBoolean(REPARSE_EXTRA_OPTION, false);
     syncResult.tooManyRetries = extras.getBoolean(ContentResolver.SYNC_EXTRAS_DO_NOT_RETRY, false);
     SyncState syncState = new SyncState(getContext(), syncResult);
 
@@ -45,7 +68,7 @@ public class EpisodesSyncAdapter extends AbstractThreadedSyncAdapter {
     try {
       c = provider.query(
           requestedId == 0 ? Provider.podcastUri : Provider.getUri(Provider.T_PODCAST, requestedId),
-          queryColumns,
+          SyncWorker.FEED_COLUMNS,
           null, null, null);
     } catch (RemoteException exception) {
       Log.e(TAG, "Failed to query podcast db", exception);
@@ -61,47 +84,221 @@ public class EpisodesSyncAdapter extends AbstractThreadedSyncAdapter {
       return;
     }
 
-    syncState.start(c.getCount());
-
-    ExecutorService executorService = Executors.newFixedThreadPool(WORKERS_NUMBER);
-    while (c.moveToNext()) {
-      long id = c.getLong(c.getColumnIndexOrThrow(Provider.K_ID));
-      String url = c.getString(c.getColumnIndexOrThrow(Provider.K_PFURL));
-      long feedTimestamp = c.getLong(c.getColumnIndexOrThrow(Provider.K_PTSTAMP));
-      Provider.RefreshMode refreshMode = Provider.RefreshMode.values()[c.getInt(
-          c.getColumnIndexOrThrow(Provider.K_PRMODE))];
-
-      // If auto-sync is invoked more often then once in sync interval, it's sync retry and sync
-      // adapter should process only feeds that failed to refresh on previous run.
-      long syncPeriodMs = Preferences.getInstance().getRefreshInterval().periodSeconds * 1000;
-      if (!manualSync && (new Date().getTime() - feedTimestamp < syncPeriodMs)) {
-        Log.i(TAG, "Skipping feed refresh (syncing to often): " + id);
-        syncState.signalFeedSuccess(null, 0);
-        continue;
+    // Full sync continues previous one if it was interrupted, single feed syncs and re-parses are
+    // not recorded
+    SyncSession session = null;
+    if (requestedId == 0 && !reparse) {
+      try {
+        long[] feedIds = getFeedIds(c);
+        session = SyncSession.resume(provider, feedIds);
+        if (session == null) {
+          session = SyncSession.create(provider, feedIds);
+        }
+      } catch (RemoteException exception) {
+        Log.e(TAG, "Failed to load sync session, sync progress won't be saved", exception);
       }
+    }
+    if (session == null) {
+      syncState.start(c.getCount());
+    } else {
+      syncState.start(session);
+    }
 
-      executorService.execute(new SyncWorker(id, url, provider, syncState, refreshMode));
+    List<Integer> positions = null;
+    try {
+      positions = getFeedsOrder(provider, c);
+    } catch (RemoteException exception) {
+      Log.e(TAG, "Failed to prioritize feeds, refreshing in DB order", exception);
     }
-    c.close();
 
-    executorService.shutdown();
+    final SyncScheduler scheduler = SyncScheduler.forActiveNetwork(getContext());
+    // workers download feeds, parse executor parses them, DB writer commits parsed episodes
+    SyncDbWriter dbWriter = new SyncDbWriter();
+    ExecutorService parseExecutor = Executors.newFixedThreadPool(PARSE_THREADS);
+    BroadcastReceiver prioritizeReceiver = new BroadcastReceiver() {
+      @Override
+      public void onReceive(Context context, Intent intent) {
+        long id = intent.getLongExtra(FEED_ID_EXTRA_OPTION, 0);
+        if (scheduler.prioritize(id)) {
+          Log.i(TAG, "Feed " + id + " refresh prioritized");
+        }
+      }
+    };
+    getContext().registerReceiver(prioritizeReceiver, new IntentFilter(PRIORITIZE_FEED_ACTION));
+    List<SyncWorker> workers = new ArrayList<>(c.getCount());
     boolean workersDone = false;
+    boolean cancelled = false;
     try {
-      workersDone = executorService.awaitTermination(SYNC_TIMEOUT, TimeUnit.SECONDS);
-    } catch (InterruptedException interrupt) {
-      syncState.error(getContext().getString(R.string.sync_interrupted_by_system));
-      // sync cancelled. Discard queue, try to interrupt workers and wait for them again
-      executorService.shutdownNow();
+      for (int i = 0; i < c.getCount(); i++) {
+        c.moveToPosition(positions == null ? i : positions.get(i));
+        long id = c.getLong(c.getColumnIndexOrThrow(Provider.K_ID));
+        if (session != null && !session.isPending(id)) {
+          // processed before sync was interrupted
+          continue;
+        }
+        long feedTimestamp = c.getLong(c.getColumnIndexOrThrow(Provider.K_PTSTAMP));
+
+        // If auto-sync is invoked more often then once in sync interval, it's sync retry and sync
+        // adapter should process only feeds that failed to refresh on previous run.
+        long syncPeriodMs = Preferences.getInstance().getRefreshInterval().periodSeconds * 1000;
+        if (!manualSync && (new Date().getTime() - feedTimestamp < syncPeriodMs)) {
+          Log.i(TAG, "Skipping feed refresh (syncing to often): " + id);
+          syncState.signalFeedSuccess(id, null, 0);
+          continue;
+        }
+
+        // Feeds that aren't expected to publish soon are refreshed only on user request
+        long nextRefresh = c.getLong(c.getColumnIndexOrThrow(Provider.K_PNEXT));
+        if (!manualSync && new Date().getTime() < nextRefresh) {
+          Log.i(TAG, "Skipping feed refresh (no release expected yet): " + id);
+          syncState.signalFeedSuccess(id, null, 0);
+          continue;
+        }
+
+        String link = c.getString(c.getColumnIndexOrThrow(Provider.K_PFURL));
+        SyncWorker worker = new SyncWorker(
+            c, provider, dbWriter, parseExecutor, syncState, reparse);
+        workers.add(worker);
+        scheduler.submit(id, link, worker);
+      }
+      c.close();
+
+      scheduler.shutdown();
+      long budgetEnd = SystemClock.elapsedRealtime() + SYNC_BUDGET;
       try {
-        workersDone = executorService.awaitTermination(SYNC_TIMEOUT, TimeUnit.SECONDS);
-      } catch (InterruptedException ignored) {}
+        while (!(workersDone = scheduler.awaitTermination(WATCHDOG_PERIOD,
+                                                          TimeUnit.MILLISECONDS))) {
+          // workers check deadlines themselves, but can't do it while blocked on silent host
+          for (SyncWorker worker : workers) {
+            worker.cancelIfOverdue();
+          }
+          if (SystemClock.elapsedRealtime() > budgetEnd) {
+            Log.w(TAG, "Sync time budget exceeded");
+            break;
+          }
+        }
+      } catch (InterruptedException interrupt) {
+        syncState.error(getContext().getString(R.string.sync_interrupted_by_system));
+        cancelled = true;
+      }
+      if (!workersDone) {
+        if (session != null) {
+          // keep feeds that are going to fail due to cancellation pending for next sync
+          session.freeze();
+        }
+        // Discard queue, abort running workers and give them a moment to finish
+        List<Runnable> discarded = scheduler.shutdownNow();
+        Log.w(TAG, "Discarding " + discarded.size() + " queued feeds");
+        for (Runnable worker : discarded) {
+          ((SyncWorker) worker).discard();
+        }
+        for (SyncWorker worker : workers) {
+          worker.cancel();
+        }
+        try {
+          workersDone = scheduler.awaitTermination(CANCEL_GRACE_PERIOD, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ignored) {}
+        cancelled = true;
+      }
+    } finally {
+      getContext().unregisterReceiver(prioritizeReceiver);
     }
     if (!workersDone) {
       Log.e(TAG, "Some of workers hanged during sync");
+      parseExecutor.shutdownNow();
+      dbWriter.shutdownNow();
     } else {
+      parseExecutor.shutdown();
+      try {
+        dbWriter.shutdown();
+      } catch (InterruptedException ignored) {
+        dbWriter.shutdownNow();
+      }
+      if (session != null && !cancelled) {
+        session.finish();
+      }
+      // sync could have written a lot, don't leave it to be checkpointed on some UI-driven commit
+      getContext().getContentResolver().call(
+          Provider.baseUri, Provider.METHOD_CHECKPOINT, null, null);
       getContext().sendBroadcast(new Intent(DownloadReceiver.UPDATE_QUEUE_ACTION));
+      // delete every gone episode whose timestamp is less then feeds timestamp, once for all feeds
+      BackgroundOperations.cleanupEpisodes(getContext(), Provider.ESTATE_GONE);
+      SizeProbeService.probeEpisodeSizes(getContext());
     }
 
     syncState.stop();
   }
+
+  @NonNull
+  private static long[] getFeedIds(@NonNull Cursor feeds) {
+    long[] result = new long[feeds.getCount()];
+    int idColumn = feeds.getColumnIndexOrThrow(Provider.K_ID);
+    for (int position = 0; feeds.moveToPosition(position); position++) {
+      result[position] = feeds.getLong(idColumn);
+    }
+    feeds.moveToPosition(-1);
+    return result;
+  }
+
+  /**
+   * Orders feeds so that ones user is likely waiting for are refreshed first: feeds with episodes
+   * in playlist, especially partially played ones, and feeds expecting new release. Feeds that
+   * failed on previous refresh go last, as they are likely to fail or time out again.
+   *
+   * @param feeds cursor with {@link SyncWorker#FEED_COLUMNS}
+   * @return cursor positions in refresh order
+   */
+  @NonNull
+  private static List<Integer> getFeedsOrder(@NonNull ContentProviderClient provider,
+                                             @NonNull Cursor feeds) throws RemoteException {
+    final LongSparseArray<Integer> scores = new LongSparseArray<>();
+    Cursor episodes = provider.query(
+        Provider.episodeUri,
+        new String[]{Provider.K_EPID, Provider.K_EPLAYED},
+        Provider.K_ESTATE + " == " + Provider.ESTATE_IN_PLAYLIST,
+        null, null);
+    if (episodes == null) {
+      throw new RemoteException("Failed to query playlist");
+    }
+    try {
+      int feedColumn = episodes.getColumnIndexOrThrow(Provider.K_EPID);
+      int playedColumn = episodes.getColumnIndexOrThrow(Provider.K_EPLAYED);
+      while (episodes.moveToNext()) {
+        long feedId = episodes.getLong(feedColumn);
+        int score = episodes.getLong(playedColumn) > 0 ? PLAYING_SCORE : PLAYLIST_SCORE;
+        scores.put(feedId, Math.min(scores.get(feedId, 0) + score, MAX_PLAYLIST_SCORE));
+      }
+    } finally {
+      episodes.close();
+    }
+
+    long now = new Date().getTime();
+    int idColumn = feeds.getColumnIndexOrThrow(Provider.K_ID);
+    int nextRefreshColumn = feeds.getColumnIndexOrThrow(Provider.K_PNEXT);
+    int stateColumn = feeds.getColumnIndexOrThrow(Provider.K_PSTATE);
+    final int[] feedScores = new int[feeds.getCount()];
+    List<Integer> result = new ArrayList<>(feeds.getCount());
+    for (int position = 0; feeds.moveToPosition(position); position++) {
+      int score = scores.get(feeds.getLong(idColumn), 0);
+      long nextRefresh = feeds.getLong(nextRefreshColumn);
+      if (nextRefresh != 0 && nextRefresh <= now) {
+        score += RELEASE_EXPECTED_SCORE;
+      }
+      if (feeds.getInt(stateColumn) == Provider.PSTATE_LAST_REFRESH_FAILED) {
+        score += FAILED_SCORE;
+      }
+      feedScores[position] = score;
+      result.add(position);
+    }
+    feeds.moveToPosition(-1);
+
+    // sort is stable, so feeds of equal score keep DB order
+    Collections.sort(result, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        return feedScores[rhs] - feedScores[lhs];
+      }
+    });
+    return result;
+  }
 }
@@ -0,0 +1,283 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzipped copies of last successfully parsed feed bodies, stored in {@link Storage#getFeedsDir()}.
+ * Allow to re-parse feed without network, e.g. to re-apply refresh mode.
+ * <p/>
+ * Total size of the cache is bounded, least recently used feeds are evicted first. File
+ * modification time serves as access time: it's updated when feed is stored, read, or found
+ * unchanged on server.
+ */
+class FeedCache {
+  private static final String TAG = "FCH";
+  private static final String SUFFIX = ".gz";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final long MAX_TOTAL_SIZE = 16 * 1024 * 1024;
+  /** Feeds bigger than this (uncompressed) aren't cached */
+  private static final long MAX_FEED_SIZE = 8 * 1024 * 1024;
+  /** Parser may stop before end of feed body. Commit reads this much of the rest at most */
+  private static final int MAX_DRAIN_SIZE = 64 * 1024;
+  /** Temp files older than this are left from crashed workers and get deleted on eviction */
+  private static final long TEMP_FILE_MAX_AGE = 60 * 60 * 1000;
+
+  private FeedCache() {}
+
+  /**
+   * Copies stream read by parser to a temp file. Becomes cache entry of the feed after
+   * {@link #commit(long)} if the whole stream was read.
+   */
+  static class Entry {
+    private final File tempFile;
+    private final OutputStream output;
+    private InputStream input;
+    private long size = 0;
+    private boolean complete = false;
+    private boolean failed = false;
+    private boolean closed = false;
+    private boolean drainAttempted = false;
+
+    private Entry(@NonNull File tempFile) throws IOException {
+      this.tempFile = tempFile;
+      output = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+    }
+
+    /** @return stream that should be read instead of given one to get its content cached */
+    @NonNull
+    InputStream wrap(@NonNull InputStream stream) {
+      input = new FilterInputStream(stream) {
+        @Override
+        public int read() throws IOException {
+          int result = super.read();
+          if (result == -1) {
+            complete = true;
+          } else {
+            store(new byte[]{(byte) result}, 0, 1);
+          }
+          return result;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+          int result = super.read(buffer, offset, count);
+          if (result == -1) {
+            complete = true;
+          } else {
+            store(buffer, offset, result);
+          }
+          return result;
+        }
+      };
+      return input;
+    }
+
+    private void store(@NonNull byte[] buffer, int offset, int count) {
+      if (failed) {
+        return;
+      }
+      size += count;
+      if (size > MAX_FEED_SIZE) {
+        Log.i(TAG, "Feed is too big to be cached");
+        failed = true;
+        return;
+      }
+      try {
+        output.write(buffer, offset, count);
+      } catch (IOException exception) {
+        // caching is optional, don't fail refresh
+        Log.w(TAG, "Failed to write " + tempFile, exception);
+        failed = true;
+      }
+    }
+
+    /**
+     * Reads the rest of the stream, if parser left no more than {@link #MAX_DRAIN_SIZE} of it.
+     * Should be called before the stream is closed, otherwise it's done by {@link #commit(long)}
+     */
+    void drain() {
+      if (input == null || complete || failed || drainAttempted) {
+        return;
+      }
+      drainAttempted = true;
+      try {
+        byte[] buffer = new byte[8 * 1024];
+        int drained = 0;
+        while (!complete && drained < MAX_DRAIN_SIZE) {
+          int read = input.read(buffer);
+          drained += read > 0 ? read : 0;
+        }
+      } catch (IOException exception) {
+        Log.w(TAG, "Failed to read rest of feed into " + tempFile, exception);
+      }
+    }
+
+    /** Stores copy of the stream as cache entry of the feed, if the stream was read till end */
+    void commit(long feedId) {
+      drain();
+      if (!complete || failed || !close()) {
+        abort();
+        return;
+      }
+      File file = getFile(feedId);
+      if (file == null || !tempFile.renameTo(file)) {
+        Log.w(TAG, "Failed to store cached copy of feed " + feedId);
+        abort();
+        return;
+      }
+      evict();
+    }
+
+    /** Discards copied data. Does nothing after successful commit */
+    void abort() {
+      close();
+      if (tempFile.exists() && !tempFile.delete()) {
+        Log.w(TAG, "Failed to delete " + tempFile);
+      }
+    }
+
+    private boolean close() {
+      if (closed) {
+        return true;
+      }
+      closed = true;
+      try {
+        output.close();
+        return true;
+      } catch (IOException exception) {
+        Log.w(TAG, "Failed to close " + tempFile, exception);
+        return false;
+      }
+    }
+  }
+
+  @Nullable
+  private static File getDir() {
+    Storage storage = Preferences.getInstance().getStorage();
+    if (storage == null || !storage.isAvailableRW()) {
+      return null;
+    }
+    File dir = storage.getFeedsDir();
+    if (!dir.exists() && !dir.mkdirs()) {
+      Log.w(TAG, "Failed to create " + dir);
+      return null;
+    }
+    return dir;
+  }
+
+  @Nullable
+  private static File getFile(long feedId) {
+    File dir = getDir();
+    return dir == null ? null : new File(dir, feedId + SUFFIX);
+  }
+
+  /** @return new entry or null if storage is not available now */
+  @Nullable
+  static Entry startEntry() {
+    File dir = getDir();
+    if (dir == null) {
+      return null;
+    }
+    try {
+      return new Entry(File.createTempFile("feed", TEMP_SUFFIX, dir));
+    } catch (IOException exception) {
+      Log.w(TAG, "Failed to create cache entry", exception);
+      return null;
+    }
+  }
+
+  /** @return uncompressed content of cached feed, or null if it isn't cached */
+  @Nullable
+  static InputStream open(long feedId) {
+    File file = getFile(feedId);
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    touch(feedId);
+    try {
+      return new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+    } catch (IOException exception) {
+      Log.w(TAG, "Failed to open cached copy of feed " + feedId, exception);
+      delete(feedId);
+      return null;
+    }
+  }
+
+  /** Marks cache entry of the feed as recently used */
+  static void touch(long feedId) {
+    File file = getFile(feedId);
+    if (file != null && file.exists() && !file.setLastModified(new Date().getTime())) {
+      Log.w(TAG, "Failed to update timestamp of " + file);
+    }
+  }
+
+  static void delete(long feedId) {
+    File file = getFile(feedId);
+    if (file != null && file.exists() && !file.delete()) {
+      Log.w(TAG, "Failed to delete " + file);
+    }
+  }
+
+  /** Deletes least recently used entries, while cache exceeds size limit */
+  private static synchronized void evict() {
+    File dir = getDir();
+    File[] files = dir == null ? null : dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    final long[] timestamps = new long[files.length];
+    long totalSize = 0;
+    for (int i = 0; i < files.length; i++) {
+      timestamps[i] = files[i].lastModified();
+      if (files[i].getName().endsWith(SUFFIX)) {
+        totalSize += files[i].length();
+      } else if (new Date().getTime() - timestamps[i] > TEMP_FILE_MAX_AGE && !files[i].delete()) {
+        Log.w(TAG, "Failed to delete stale " + files[i]);
+      }
+    }
+    if (totalSize <= MAX_TOTAL_SIZE) {
+      return;
+    }
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        long diff = timestamps[lhs] - timestamps[rhs];
+        return diff < 0 ? -1 : (diff == 0 ? 0 : 1);
+      }
+    });
+    for (int i = 0; i < order.length && totalSize > MAX_TOTAL_SIZE; i++) {
+      File file = files[order[i]];
+      if (!file.getName().endsWith(SUFFIX)) {
+        continue;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        Log.d(TAG, "Evicted " + file);
+        totalSize -= length;
+      } else {
+        Log.w(TAG, "Failed to evict " + file);
+      }
+    }
+  }
+}
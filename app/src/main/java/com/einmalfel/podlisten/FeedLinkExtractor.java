@@ -0,0 +1,114 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts links to possible feeds from HTML page while streaming it.
+ * <p/>
+ * Page is tokenized into tags without building it in memory. A tag is considered to be a feed link
+ * if it has href attribute and mentions feed, rss, xml or gems. Scanning stops at the end of
+ * &lt;head&gt; if some links were found there (that's where &lt;link rel="alternate"&gt; lives),
+ * otherwise it continues through the body up to {@link #MAX_PAGE_SIZE}.
+ */
+class FeedLinkExtractor {
+  /** Characters of page to scan at most */
+  private static final int MAX_PAGE_SIZE = 256 * 1024;
+  /** Longer tags are skipped, they are unlikely to be links */
+  private static final int MAX_TAG_LENGTH = 4 * 1024;
+  private static final String[] KEYWORDS = {"feed", "rss", "xml", "gems"};
+  private static final Pattern HREF_PATTERN = Pattern.compile(
+      "\\shref\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))", Pattern.CASE_INSENSITIVE);
+
+  private FeedLinkExtractor() {}
+
+  /**
+   * @param page HTML page content, it's not closed here
+   * @param base URL of the page, relative links are resolved against it
+   * @return absolute http(s) links in order of appearance on page
+   */
+  @NonNull
+  static Set<String> extract(@NonNull InputStream page, @NonNull URL base) throws IOException {
+    Set<String> result = new LinkedHashSet<>();
+    Reader reader = new BufferedReader(new InputStreamReader(page, "UTF-8"));
+    StringBuilder tag = new StringBuilder();
+    boolean inTag = false;
+    int c;
+    for (int read = 0; read < MAX_PAGE_SIZE && (c = reader.read()) != -1; read++) {
+      if (c == '<') {
+        // tags can't be nested, unclosed tag is dropped
+        inTag = true;
+        tag.setLength(0);
+      } else if (!inTag) {
+        continue;
+      } else if (c == '>') {
+        inTag = false;
+        String lowerCase = tag.toString().toLowerCase(Locale.US);
+        if (!result.isEmpty() && (lowerCase.startsWith("/head") || lowerCase.startsWith("body"))) {
+          break;
+        }
+        String link = getFeedLink(tag.toString(), lowerCase, base);
+        if (link != null) {
+          result.add(link);
+        }
+      } else if (tag.length() < MAX_TAG_LENGTH) {
+        tag.append((char) c);
+      } else {
+        inTag = false;
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  private static String getFeedLink(@NonNull String tag, @NonNull String lowerCase,
+                                    @NonNull URL base) {
+    boolean keywordFound = false;
+    for (String keyword : KEYWORDS) {
+      if (lowerCase.contains(keyword)) {
+        keywordFound = true;
+        break;
+      }
+    }
+    if (!keywordFound) {
+      return null;
+    }
+    Matcher matcher = HREF_PATTERN.matcher(tag);
+    if (!matcher.find()) {
+      return null;
+    }
+    String href = matcher.group(1);
+    if (href == null) {
+      href = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+    }
+    href = href.replace("&amp;", "&").trim();
+    if (href.isEmpty() || href.startsWith("#")) {
+      return null;
+    }
+    try {
+      URL url = new URL(base, href);
+      String protocol = url.getProtocol();
+      // URL.equals resolves host names, compare strings instead
+      if ((!"http".equals(protocol) && !"https".equals(protocol)) ||
+          url.toString().equals(base.toString())) {
+        return null;
+      }
+      return url.toString();
+    } catch (MalformedURLException ignored) {
+      return null;
+    }
+  }
+}
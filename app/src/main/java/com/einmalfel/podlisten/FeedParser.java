@@ -0,0 +1,439 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming parser of RSS 2.0, RSS 1.0 and Atom feeds. Unlike EarlParser, it doesn't build a model
+ * of the whole feed: items are handed to {@link ItemSink} as soon as they are parsed, and sink may
+ * stop parsing at any item, leaving the rest of the stream unread.
+ * Instances aren't thread-safe.
+ */
+class FeedParser {
+  interface ItemSink {
+    /** @return false to stop parsing */
+    boolean onItem(@NonNull Item item);
+  }
+
+  /** Feed-level data. Fields declared after last parsed item may be missing */
+  static class Channel {
+    @Nullable
+    String title;
+    @Nullable
+    String link;
+    @Nullable
+    String description;
+    @Nullable
+    String imageLink;
+  }
+
+  static class Item {
+    @Nullable
+    String title;
+    @Nullable
+    String link;
+    @Nullable
+    String description;
+    @Nullable
+    String id;
+    @Nullable
+    String imageLink;
+    @Nullable
+    Date publicationDate;
+    @NonNull
+    final List<Enclosure> enclosures = new ArrayList<>(1);
+  }
+
+  static class Enclosure {
+    @NonNull
+    final String link;
+    @Nullable
+    final Integer length;
+    @Nullable
+    final String type;
+
+    Enclosure(@NonNull String link, @Nullable Integer length, @Nullable String type) {
+      this.link = link;
+      this.length = length;
+      this.type = type;
+    }
+  }
+
+  /**
+   * Bump it when parser starts to recognize items or fields it used to miss. Cached feeds are
+   * re-parsed after update to the new version, see {@link Preferences.Key#PARSER_VERSION}
+   */
+  static final int VERSION = 1;
+  private static final String TAG = "FPR";
+  private static final String NS_ATOM = "http://www.w3.org/2005/Atom";
+  private static final String NS_ITUNES = "http://www.itunes.com/dtds/podcast-1.0.dtd";
+  private static final String NS_CONTENT = "http://purl.org/rss/1.0/modules/content/";
+  private static final String NS_MEDIA = "http://search.yahoo.com/mrss/";
+  private static final String NS_DC = "http://purl.org/dc/elements/1.1/";
+
+  private final DateFormat[] rfc822Formats = new DateFormat[]{
+      new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z", Locale.US),
+      new SimpleDateFormat("EEE, d MMM yyyy HH:mm z", Locale.US),
+      new SimpleDateFormat("d MMM yyyy HH:mm:ss z", Locale.US),
+      new SimpleDateFormat("EEE, d MMM yy HH:mm:ss z", Locale.US),
+      new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss", Locale.US),
+      new SimpleDateFormat("EEE, d MMM yyyy", Locale.US)};
+  private final DateFormat[] rfc3339Formats = new DateFormat[]{
+      new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US),
+      new SimpleDateFormat("yyyy-MM-dd'T'HH:mmZ", Locale.US),
+      new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US),
+      new SimpleDateFormat("yyyy-MM-dd", Locale.US)};
+  private final int maxItems;
+  private XmlPullParser parser;
+  private int itemsParsed;
+  private boolean stopped;
+
+  /** @param maxItems parsing stops after reading this number of feed items */
+  FeedParser(int maxItems) {
+    this.maxItems = maxItems;
+  }
+
+  /**
+   * @throws XmlPullParserException if stream isn't well-formed XML or isn't a feed
+   */
+  @NonNull
+  Channel parse(@NonNull InputStream stream, @NonNull ItemSink sink)
+      throws XmlPullParserException, IOException {
+    itemsParsed = 0;
+    stopped = false;
+    // factory rather than android.util.Xml, so that parser could be tested on JVM
+    XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    parser = factory.newPullParser();
+    parser.setInput(stream, null);
+    parser.nextTag();
+    Channel channel = new Channel();
+    switch (parser.getName()) {
+      case "rss":
+      case "RDF":
+        // RSS 2.0 items are nested in channel tag, RSS 1.0 items are its siblings
+        while (!stopped && parser.nextTag() == XmlPullParser.START_TAG) {
+          if (isRss("channel")) {
+            readRssChannel(channel, sink);
+          } else if (isRss("item")) {
+            readRssItem(sink);
+          } else {
+            skip();
+          }
+        }
+        break;
+      case "feed":
+        readAtomFeed(channel, sink);
+        break;
+      default:
+        throw new XmlPullParserException("Unknown feed format: " + parser.getName(), parser, null);
+    }
+    return channel;
+  }
+
+  /** @return true if current tag has given name and belongs to RSS (RSS 2.0 has no namespace) */
+  private boolean isRss(@NonNull String name) {
+    String namespace = parser.getNamespace();
+    return name.equals(parser.getName()) &&
+        (namespace.isEmpty() || namespace.startsWith("http://purl.org/rss/"));
+  }
+
+  private boolean is(@NonNull String namespace, @NonNull String name) {
+    return name.equals(parser.getName()) && namespace.equals(parser.getNamespace());
+  }
+
+  private void readRssChannel(@NonNull Channel channel, @NonNull ItemSink sink)
+      throws XmlPullParserException, IOException {
+    String summary = null;
+    while (!stopped && parser.nextTag() == XmlPullParser.START_TAG) {
+      if (isRss("item")) {
+        readRssItem(sink);
+      } else if (isRss("title")) {
+        channel.title = readText();
+      } else if (isRss("link")) {
+        channel.link = readText();
+      } else if (isRss("description")) {
+        channel.description = readText();
+      } else if (isRss("image") && channel.imageLink == null) {
+        while (parser.nextTag() == XmlPullParser.START_TAG) {
+          if (isRss("url")) {
+            channel.imageLink = readText();
+          } else {
+            skip();
+          }
+        }
+      } else if (is(NS_ITUNES, "image")) {
+        // itunes images are usually of better quality
+        channel.imageLink = readHref("href");
+      } else if (is(NS_ITUNES, "summary")) {
+        summary = readText();
+      } else {
+        skip();
+      }
+    }
+    if (channel.description == null) {
+      channel.description = summary;
+    }
+  }
+
+  private void readRssItem(@NonNull ItemSink sink) throws XmlPullParserException, IOException {
+    Item item = new Item();
+    String content = null;
+    String summary = null;
+    Date dcDate = null;
+    while (parser.nextTag() == XmlPullParser.START_TAG) {
+      if (isRss("title")) {
+        item.title = readText();
+      } else if (isRss("link")) {
+        item.link = readText();
+      } else if (isRss("description")) {
+        item.description = readText();
+      } else if (isRss("guid")) {
+        item.id = readText();
+      } else if (isRss("pubDate")) {
+        item.publicationDate = parseRfc822Date(readText());
+      } else if (isRss("enclosure")) {
+        addEnclosure(item, "url", "length");
+      } else if (is(NS_MEDIA, "content")) {
+        addEnclosure(item, "url", "fileSize");
+      } else if (is(NS_ITUNES, "image")) {
+        item.imageLink = readHref("href");
+      } else if (is(NS_MEDIA, "thumbnail") && item.imageLink == null) {
+        item.imageLink = readHref("url");
+      } else if (is(NS_CONTENT, "encoded")) {
+        content = readText();
+      } else if (is(NS_ITUNES, "summary")) {
+        summary = readText();
+      } else if (is(NS_DC, "date")) {
+        dcDate = parseRfc3339Date(readText());
+      } else {
+        skip();
+      }
+    }
+    if (item.description == null) {
+      item.description = content == null ? summary : content;
+    }
+    if (item.publicationDate == null) {
+      item.publicationDate = dcDate;
+    }
+    deliver(item, sink);
+  }
+
+  private void readAtomFeed(@NonNull Channel channel, @NonNull ItemSink sink)
+      throws XmlPullParserException, IOException {
+    String icon = null;
+    while (!stopped && parser.nextTag() == XmlPullParser.START_TAG) {
+      if (is(NS_ATOM, "entry")) {
+        readAtomEntry(sink);
+      } else if (is(NS_ATOM, "title")) {
+        channel.title = readText();
+      } else if (is(NS_ATOM, "subtitle")) {
+        channel.description = readText();
+      } else if (is(NS_ATOM, "link")) {
+        String rel = parser.getAttributeValue(null, "rel");
+        String href = readHref("href");
+        if (rel == null || "alternate".equals(rel)) {
+          channel.link = href;
+        }
+      } else if (is(NS_ATOM, "logo")) {
+        channel.imageLink = readText();
+      } else if (is(NS_ATOM, "icon")) {
+        icon = readText();
+      } else if (is(NS_ITUNES, "image")) {
+        channel.imageLink = readHref("href");
+      } else {
+        skip();
+      }
+    }
+    if (channel.imageLink == null) {
+      channel.imageLink = icon;
+    }
+  }
+
+  private void readAtomEntry(@NonNull ItemSink sink) throws XmlPullParserException, IOException {
+    Item item = new Item();
+    String content = null;
+    Date updated = null;
+    while (parser.nextTag() == XmlPullParser.START_TAG) {
+      if (is(NS_ATOM, "title")) {
+        item.title = readText();
+      } else if (is(NS_ATOM, "id")) {
+        item.id = readText();
+      } else if (is(NS_ATOM, "link")) {
+        String rel = parser.getAttributeValue(null, "rel");
+        if ("enclosure".equals(rel)) {
+          addEnclosure(item, "href", "length");
+        } else {
+          String href = readHref("href");
+          if (rel == null || "alternate".equals(rel)) {
+            item.link = href;
+          }
+        }
+      } else if (is(NS_ATOM, "summary")) {
+        item.description = readText();
+      } else if (is(NS_ATOM, "content")) {
+        content = readText();
+      } else if (is(NS_ATOM, "published")) {
+        item.publicationDate = parseRfc3339Date(readText());
+      } else if (is(NS_ATOM, "updated")) {
+        updated = parseRfc3339Date(readText());
+      } else if (is(NS_ITUNES, "image")) {
+        item.imageLink = readHref("href");
+      } else if (is(NS_MEDIA, "thumbnail") && item.imageLink == null) {
+        item.imageLink = readHref("url");
+      } else {
+        skip();
+      }
+    }
+    if (item.description == null) {
+      item.description = content;
+    }
+    if (item.publicationDate == null) {
+      item.publicationDate = updated;
+    }
+    deliver(item, sink);
+  }
+
+  private void deliver(@NonNull Item item, @NonNull ItemSink sink) {
+    itemsParsed++;
+    if (!sink.onItem(item) || itemsParsed >= maxItems) {
+      stopped = true;
+    }
+  }
+
+  private void addEnclosure(@NonNull Item item, @NonNull String urlAttribute,
+                            @NonNull String lengthAttribute)
+      throws XmlPullParserException, IOException {
+    String type = parser.getAttributeValue(null, "type");
+    String length = parser.getAttributeValue(null, lengthAttribute);
+    String url = readHref(urlAttribute);
+    if (url == null || url.isEmpty()) {
+      return;
+    }
+    Integer parsedLength = null;
+    if (length != null) {
+      try {
+        parsedLength = Integer.valueOf(length.trim());
+      } catch (NumberFormatException ignored) {
+        Log.d(TAG, "Malformed enclosure length " + length);
+      }
+    }
+    item.enclosures.add(new Enclosure(url, parsedLength, type));
+  }
+
+  /** Reads attribute of current tag and skips the tag */
+  @Nullable
+  private String readHref(@NonNull String attribute) throws XmlPullParserException, IOException {
+    String result = parser.getAttributeValue(null, attribute);
+    skip();
+    return result == null ? null : result.trim();
+  }
+
+  /**
+   * Reads content of current tag. Nested tags (i.e. Atom's xhtml content) are reproduced as markup
+   * @return trimmed text, or null if it is empty
+   */
+  @Nullable
+  private String readText() throws XmlPullParserException, IOException {
+    StringBuilder builder = new StringBuilder();
+    int depth = 1;
+    while (depth > 0) {
+      switch (parser.next()) {
+        case XmlPullParser.TEXT:
+          builder.append(depth > 1 ? escape(parser.getText()) : parser.getText());
+          break;
+        case XmlPullParser.START_TAG:
+          depth++;
+          builder.append('<').append(parser.getName());
+          for (int i = 0; i < parser.getAttributeCount(); i++) {
+            builder.append(' ')
+                   .append(parser.getAttributeName(i))
+                   .append("=\"")
+                   .append(escape(parser.getAttributeValue(i)))
+                   .append('"');
+          }
+          builder.append('>');
+          break;
+        case XmlPullParser.END_TAG:
+          depth--;
+          if (depth > 0) {
+            builder.append("</").append(parser.getName()).append('>');
+          }
+          break;
+        case XmlPullParser.END_DOCUMENT:
+          throw new XmlPullParserException("Unexpected end of document", parser, null);
+      }
+    }
+    String result = builder.toString().trim();
+    return result.isEmpty() ? null : result;
+  }
+
+  @NonNull
+  private static String escape(@NonNull String text) {
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+               .replace("\"", "&quot;");
+  }
+
+  private void skip() throws XmlPullParserException, IOException {
+    int depth = 1;
+    while (depth > 0) {
+      switch (parser.next()) {
+        case XmlPullParser.START_TAG:
+          depth++;
+          break;
+        case XmlPullParser.END_TAG:
+          depth--;
+          break;
+        case XmlPullParser.END_DOCUMENT:
+          throw new XmlPullParserException("Unexpected end of document", parser, null);
+      }
+    }
+  }
+
+  @Nullable
+  private Date parseRfc822Date(@Nullable String date) {
+    if (date == null) {
+      return null;
+    }
+    for (DateFormat format : rfc822Formats) {
+      try {
+        return format.parse(date);
+      } catch (ParseException ignored) {}
+    }
+    // some feeds use ISO dates in pubDate
+    return parseRfc3339Date(date);
+  }
+
+  @Nullable
+  private Date parseRfc3339Date(@Nullable String date) {
+    if (date == null) {
+      return null;
+    }
+    // convert time zone to RFC 822 format understood by SimpleDateFormat, drop fractional seconds
+    String normalized = date.replaceFirst("[Zz]$", "+0000")
+                            .replaceFirst("([+-]\\d\\d):(\\d\\d)$", "$1$2")
+                            .replaceFirst("(T\\d\\d:\\d\\d:\\d\\d)\\.\\d+", "$1");
+    for (DateFormat format : rfc3339Formats) {
+      try {
+        return format.parse(normalized);
+      } catch (ParseException ignored) {}
+    }
+    Log.d(TAG, "Failed to parse date " + date);
+    return null;
+  }
+}
@@ -0,0 +1,532 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reduces feed descriptions to the subset of HTML supported by TextView: bold, italic, underline,
+ * monospace, super/subscript, links and line breaks. Block elements, list items and images become
+ * line breaks, repeated breaks and whitespaces are collapsed, e-mails, web addresses and phone
+ * numbers found in text are converted to links.
+ * <p/>
+ * Input is processed in a single pass by a lenient tokenizer, autolinking only looks at text
+ * outside of tags, so no regular expression runs over the whole description.
+ */
+class HtmlSimplifier {
+  private static final String BR = "<br/>";
+  private static final char BULLET = '\u2022';
+
+  private static final Map<String, String> INLINE_TAGS = new HashMap<>();
+  private static final Map<String, Character> ENTITIES = new HashMap<>();
+  private static final String[] BLOCK_TAGS = new String[]{
+      "p", "div", "blockquote", "ul", "ol", "dl", "dt", "dd", "table", "tr", "hr", "pre", "section",
+      "article", "header", "footer", "h1", "h2", "h3", "h4", "h5", "h6"};
+
+  static {
+    INLINE_TAGS.put("b", "b");
+    INLINE_TAGS.put("strong", "b");
+    INLINE_TAGS.put("i", "i");
+    INLINE_TAGS.put("em", "i");
+    INLINE_TAGS.put("cite", "i");
+    INLINE_TAGS.put("dfn", "i");
+    INLINE_TAGS.put("u", "u");
+    INLINE_TAGS.put("tt", "tt");
+    INLINE_TAGS.put("sup", "sup");
+    INLINE_TAGS.put("sub", "sub");
+    // headers are rendered bold by TextView, besides being blocks
+    for (int i = 1; i <= 6; i++) {
+      INLINE_TAGS.put("h" + i, "b");
+    }
+
+    ENTITIES.put("amp", '&');
+    ENTITIES.put("lt", '<');
+    ENTITIES.put("gt", '>');
+    ENTITIES.put("quot", '"');
+    ENTITIES.put("apos", '\'');
+    ENTITIES.put("nbsp", '\u00A0');
+    ENTITIES.put("ndash", '\u2013');
+    ENTITIES.put("mdash", '\u2014');
+    ENTITIES.put("lsquo", '\u2018');
+    ENTITIES.put("rsquo", '\u2019');
+    ENTITIES.put("ldquo", '\u201C');
+    ENTITIES.put("rdquo", '\u201D');
+    ENTITIES.put("laquo", '\u00AB');
+    ENTITIES.put("raquo", '\u00BB');
+    ENTITIES.put("hellip", '\u2026');
+    ENTITIES.put("bull", BULLET);
+    ENTITIES.put("middot", '\u00B7');
+    ENTITIES.put("copy", '\u00A9');
+    ENTITIES.put("reg", '\u00AE');
+    ENTITIES.put("trade", '\u2122');
+  }
+
+  // patterns from android.utils.Patterns. They are only matched against separate words
+  private static final String GOOD_IRI_CHAR = "a-zA-Z0-9\u00A0-\uD7FF\uF900-\uFDCF\uFDF0-\uFFEF";
+  private static final String IP_ADDRESS =
+      "(?:(?:25[0-5]|2[0-4][0-9]|[0-1][0-9]{2}|[1-9][0-9]|[1-9])\\.(?:25[0-5]|2[0-4]"
+          + "[0-9]|[0-1][0-9]{2}|[1-9][0-9]|[1-9]|0)\\.(?:25[0-5]|2[0-4][0-9]|[0-1]"
+          + "[0-9]{2}|[1-9][0-9]|[1-9]|0)\\.(?:25[0-5]|2[0-4][0-9]|[0-1][0-9]{2}"
+          + "|[1-9][0-9]|[0-9]))";
+  private static final String IRI =
+      "[" + GOOD_IRI_CHAR + "](?:[" + GOOD_IRI_CHAR + "\\-]{0,61}[" + GOOD_IRI_CHAR + "])?";
+  private static final String GTLD = "[a-zA-Z\u00C0-\uD7FF\uF900-\uFDCF\uFDF0-\uFFEF]{2,63}";
+  private static final String HOST_NAME = "(?:" + IRI + "\\.)+" + GTLD;
+  private static final String DOMAIN_NAME = "(?:" + HOST_NAME + "|" + IP_ADDRESS + ")";
+  private static final String IRI_PART = "(?:/(?:(?:[" + GOOD_IRI_CHAR +
+      ";/\\?:@&=#~\\-\\.\\+!\\*'\\(\\),_])|(?:%[a-fA-F0-9]{2}))*)?";
+  private static final Pattern EMAIL_ADDRESS = Pattern.compile(
+      "[a-zA-Z0-9\\+\\._%\\-]{1,256}@[a-zA-Z0-9][a-zA-Z0-9\\-]{0,64}" +
+          "(?:\\.[a-zA-Z0-9][a-zA-Z0-9\\-]{0,25})");
+  private static final Pattern WEB_URL = Pattern.compile(
+      "(?:(?:http|https|Http|Https|rtsp|Rtsp)://(?:(?:[a-zA-Z0-9\\$\\-_\\.\\+!\\*" +
+          "'\\(\\),;\\?&=]|(?:%[a-fA-F0-9]{2})){1,64}(?::(?:[a-zA-Z0-9\\$\\-_" +
+          "\\.\\+!\\*\\(\\),;\\?&=]|(?:%[a-fA-F0-9]{2})){1,25})?@)?)" +
+          DOMAIN_NAME + "(?::\\d{1,5})?" + IRI_PART);
+  private static final Pattern WEB_URL_NO_PROTO = Pattern.compile(
+      DOMAIN_NAME + "(?::\\d{1,5})?" + IRI_PART);
+  // last part of number should be longer than 7 symbols, otherwise it will match dates (2015-02-02)
+  private static final Pattern PHONE = Pattern.compile(
+      "(?<=\\A|\\s)" +
+          "((?:\\+[0-9]+[\\- \\.]*)?(?:\\([0-9]+\\)[\\- \\.]*)?(?:[0-9][0-9\\- \\.]{9,}[0-9]))" +
+          "(?=\\Z|\\s)");
+  // trailing punctuation isn't considered a part of web address or e-mail
+  private static final String TRAILING_PUNCTUATION = ".,;:!?'\")";
+  private static final Pattern HREF = Pattern.compile(
+      "(?:^|\\s)href\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))",
+      Pattern.CASE_INSENSITIVE);
+
+  /** Inline element opened in source. It's written to output along with first text inside it */
+  private static class Element {
+    final String name;
+    final String outputName;
+    final String markup;
+    boolean written = false;
+
+    Element(@NonNull String name, @NonNull String outputName, @NonNull String markup) {
+      this.name = name;
+      this.outputName = outputName;
+      this.markup = markup;
+    }
+  }
+
+  private final String source;
+  private final StringBuilder out;
+  private final StringBuilder text = new StringBuilder();
+  private final List<Element> openElements = new ArrayList<>();
+  private boolean pendingBreak = false;
+  private int anchorsOpen = 0;
+  private int position = 0;
+
+  private HtmlSimplifier(@NonNull String source) {
+    this.source = source;
+    out = new StringBuilder(source.length());
+  }
+
+  @NonNull
+  static String simplify(@NonNull String html) {
+    return new HtmlSimplifier(html).run();
+  }
+
+  /**
+   * Converts output of {@link #simplify(String)} to plain text, replacing line breaks with \n
+   *
+   * @param maxLength result is truncated to this length
+   */
+  @NonNull
+  static String toPlainText(@NonNull String simplifiedHtml, int maxLength) {
+    StringBuilder result = new StringBuilder(Math.min(maxLength, simplifiedHtml.length()));
+    int length = simplifiedHtml.length();
+    for (int i = 0; i < length && result.length() < maxLength; i++) {
+      char c = simplifiedHtml.charAt(i);
+      if (c == '<') {
+        if (simplifiedHtml.startsWith(BR, i)) {
+          result.append('\n');
+        }
+        int end = simplifiedHtml.indexOf('>', i);
+        i = end < 0 ? length : end;
+      } else if (c == '&') {
+        int end = simplifiedHtml.indexOf(';', i);
+        Character entity = end < 0 ? null : ENTITIES.get(simplifiedHtml.substring(i + 1, end));
+        if (entity == null) {
+          result.append(c);
+        } else {
+          result.append(entity.charValue());
+          i = end;
+        }
+      } else {
+        result.append(c);
+      }
+    }
+    return result.toString();
+  }
+
+  @NonNull
+  private String run() {
+    int length = source.length();
+    while (position < length) {
+      char c = source.charAt(position);
+      if (c == '<') {
+        readMarkup();
+      } else if (c == '&') {
+        readEntity();
+      } else {
+        appendChar(c);
+        position++;
+      }
+    }
+    flushText();
+    for (int i = openElements.size() - 1; i >= 0; i--) {
+      closeElement(openElements.get(i));
+    }
+    trimTrailingSpaces();
+    return out.toString();
+  }
+
+  private void appendChar(char c) {
+    switch (c) {
+      case '\n':
+        lineBreak();
+        break;
+      case ' ':
+      case '\t':
+      case '\r':
+      case '\f':
+        if (text.length() == 0 || text.charAt(text.length() - 1) != ' ') {
+          text.append(' ');
+        }
+        break;
+      default:
+        text.append(c);
+    }
+  }
+
+  private void readEntity() {
+    int end = source.indexOf(';', position);
+    // entities are short, don't scan whole description for misplaced ampersand
+    if (end > 0 && end - position <= 10) {
+      String name = source.substring(position + 1, end);
+      int code = -1;
+      try {
+        if (name.startsWith("#x") || name.startsWith("#X")) {
+          code = Integer.parseInt(name.substring(2), 16);
+        } else if (name.startsWith("#")) {
+          code = Integer.parseInt(name.substring(1));
+        }
+      } catch (NumberFormatException ignored) {}
+      Character entity = ENTITIES.get(name);
+      if (entity != null) {
+        code = entity;
+      }
+      if (Character.isValidCodePoint(code)) {
+        position = end + 1;
+        if (code == 0xA0) {
+          text.append('\u00A0');
+        } else if (Character.isSupplementaryCodePoint(code)) {
+          text.append(Character.toChars(code));
+        } else {
+          appendChar((char) code);
+        }
+        return;
+      }
+    }
+    appendChar('&');
+    position++;
+  }
+
+  private void readMarkup() {
+    int length = source.length();
+    if (source.startsWith("<!--", position)) {
+      int end = source.indexOf("-->", position + 4);
+      position = end < 0 ? length : end + 3;
+      return;
+    }
+    char next = position + 1 < length ? source.charAt(position + 1) : ' ';
+    boolean tagStart = Character.isLetter(next) || next == '/' || next == '!' || next == '?';
+    int end = tagStart ? findTagEnd(position + 1) : -1;
+    if (end < 0) {
+      // not a tag, keep it as text
+      appendChar('<');
+      position++;
+      return;
+    }
+    int nameStart = position + 1;
+    boolean closing = nameStart < end && source.charAt(nameStart) == '/';
+    if (closing) {
+      nameStart++;
+    }
+    int nameEnd = nameStart;
+    while (nameEnd < end && Character.isLetterOrDigit(source.charAt(nameEnd))) {
+      nameEnd++;
+    }
+    String name = source.substring(nameStart, nameEnd).toLowerCase(Locale.US);
+    String attributes = source.substring(nameEnd, end);
+    position = end + 1;
+    if (name.isEmpty()) {
+      // <!DOCTYPE>, <?xml ?>, etc
+      return;
+    }
+    if (!closing && ("script".equals(name) || "style".equals(name))) {
+      position = findClosingTag(name, position);
+      return;
+    }
+    processTag(name, attributes, closing);
+  }
+
+  /** @return index of closing tag with given name, or source length if there is none */
+  private int findClosingTag(@NonNull String name, int start) {
+    for (int i = source.indexOf("</", start); i >= 0; i = source.indexOf("</", i + 2)) {
+      if (source.regionMatches(true, i + 2, name, 0, name.length())) {
+        return i;
+      }
+    }
+    return source.length();
+  }
+
+  /** @return index of '>' closing the tag, ignoring ones inside quoted attribute values */
+  private int findTagEnd(int start) {
+    char quote = 0;
+    for (int i = start; i < source.length(); i++) {
+      char c = source.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '>') {
+        return i;
+      } else if (c == '<') {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  private void processTag(@NonNull String name, @NonNull String attributes, boolean closing) {
+    if ("br".equals(name) || "img".equals(name)) {
+      lineBreak();
+      return;
+    }
+    if ("li".equals(name)) {
+      lineBreak();
+      if (!closing) {
+        text.append(BULLET);
+      }
+      return;
+    }
+    boolean block = isBlock(name);
+    if (block) {
+      lineBreak();
+    }
+    String outputName = INLINE_TAGS.get(name);
+    if ("a".equals(name)) {
+      if (closing) {
+        closeElement(name);
+      } else {
+        String href = getHref(attributes);
+        if (href != null) {
+          flushText();
+          openElements.add(new Element(name, name, "<a href=\"" + escape(href) + "\">"));
+          anchorsOpen++;
+        }
+      }
+    } else if (outputName != null) {
+      if (closing) {
+        closeElement(name);
+      } else {
+        flushText();
+        openElements.add(new Element(name, outputName, '<' + outputName + '>'));
+      }
+    }
+    if (block && closing) {
+      lineBreak();
+    }
+  }
+
+  private static boolean isBlock(@NonNull String name) {
+    for (String tag : BLOCK_TAGS) {
+      if (tag.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Closes the most recently opened element with given name and elements opened after it */
+  private void closeElement(@NonNull String name) {
+    for (int i = openElements.size() - 1; i >= 0; i--) {
+      if (openElements.get(i).name.equals(name)) {
+        flushText();
+        for (int j = openElements.size() - 1; j >= i; j--) {
+          closeElement(openElements.get(j));
+        }
+        return;
+      }
+    }
+  }
+
+  private void closeElement(@NonNull Element element) {
+    if (element.written) {
+      out.append("</").append(element.outputName).append('>');
+    }
+    if ("a".equals(element.name)) {
+      anchorsOpen--;
+    }
+    openElements.remove(element);
+  }
+
+  private void lineBreak() {
+    flushText();
+    if (out.length() != 0) {
+      pendingBreak = true;
+    }
+  }
+
+  private void flushText() {
+    int start = 0;
+    int end = text.length();
+    // whitespace isn't needed at line start or after another whitespace
+    if (end != 0 && text.charAt(0) == ' ' &&
+        (pendingBreak || out.length() == 0 || endsWithSpace())) {
+      start++;
+    }
+    if (start == end) {
+      text.setLength(0);
+      return;
+    }
+    if (pendingBreak) {
+      trimTrailingSpaces();
+      out.append(BR);
+      pendingBreak = false;
+    }
+    for (Element element : openElements) {
+      if (!element.written) {
+        out.append(element.markup);
+        element.written = true;
+      }
+    }
+    String run = text.substring(start, end);
+    text.setLength(0);
+    if (anchorsOpen > 0) {
+      out.append(escape(run));
+    } else {
+      appendLinkified(run);
+    }
+  }
+
+  private boolean endsWithSpace() {
+    return out.length() != 0 && out.charAt(out.length() - 1) == ' ';
+  }
+
+  private void trimTrailingSpaces() {
+    while (endsWithSpace()) {
+      out.setLength(out.length() - 1);
+    }
+  }
+
+  private void appendLinkified(@NonNull String run) {
+    Matcher phone = PHONE.matcher(run);
+    int start = 0;
+    while (phone.find()) {
+      appendWords(run.substring(start, phone.start()));
+      String number = phone.group(1);
+      out.append("<a href=\"tel:").append(number).append("\">").append(number).append("</a>");
+      start = phone.end();
+    }
+    appendWords(run.substring(start));
+  }
+
+  /** Appends text, converting words that look like e-mails and web addresses to links */
+  private void appendWords(@NonNull String run) {
+    int length = run.length();
+    int wordStart = 0;
+    while (wordStart < length) {
+      int wordEnd = run.indexOf(' ', wordStart);
+      if (wordEnd < 0) {
+        wordEnd = length;
+      }
+      int coreEnd = wordEnd;
+      while (coreEnd > wordStart && TRAILING_PUNCTUATION.indexOf(run.charAt(coreEnd - 1)) >= 0) {
+        coreEnd--;
+      }
+      String core = run.substring(wordStart, coreEnd);
+      String href = null;
+      if (core.indexOf('@') > 0 && EMAIL_ADDRESS.matcher(core).matches()) {
+        href = "mailto:" + core;
+      } else if (core.indexOf('.') > 0) {
+        if (WEB_URL_NO_PROTO.matcher(core).matches()) {
+          href = "http://" + core;
+        } else if (WEB_URL.matcher(core).matches()) {
+          href = core;
+        }
+      }
+      if (href == null) {
+        out.append(escape(run.substring(wordStart, wordEnd)));
+      } else {
+        out.append("<a href=\"")
+           .append(escape(href))
+           .append("\">")
+           .append(escape(core))
+           .append("</a>")
+           .append(escape(run.substring(coreEnd, wordEnd)));
+      }
+      if (wordEnd < length) {
+        out.append(' ');
+      }
+      wordStart = wordEnd + 1;
+    }
+  }
+
+  @NonNull
+  private static String escape(@NonNull String text) {
+    StringBuilder result = null;
+    for (int i = 0; i < text.length(); i++) {
+      String replacement;
+      switch (text.charAt(i)) {
+        case '&':
+          replacement = "&amp;";
+          break;
+        case '<':
+          replacement = "&lt;";
+          break;
+        case '>':
+          replacement = "&gt;";
+          break;
+        case '"':
+          replacement = "&quot;";
+          break;
+        default:
+          replacement = null;
+      }
+      if (replacement != null && result == null) {
+        result = new StringBuilder(text.length() + 16).append(text, 0, i);
+      }
+      if (result != null) {
+        if (replacement == null) {
+          result.append(text.charAt(i));
+        } else {
+          result.append(replacement);
+        }
+      }
+    }
+    return result == null ? text : result.toString();
+  }
+
+  /** @return unescaped value of attribute or null if it's absent */
+  private static String getHref(@NonNull String attributes) {
+    Matcher matcher = HREF.matcher(attributes);
+    if (!matcher.find()) {
+      return null;
+    }
+    String value = matcher.group(1) != null ? matcher.group(1) :
+        matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+    return toPlainText(value.trim(), Integer.MAX_VALUE);
+  }
+}
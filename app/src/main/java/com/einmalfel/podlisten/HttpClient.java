@@ -0,0 +1,302 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Single entry point for HTTP requests of the app.
+ * <p/>
+ * Connections are pooled and kept alive by platform HttpURLConnection, as long as response bodies
+ * are closed instead of disconnecting, so use {@link Response#close()} when done with response.
+ * Redirects are followed manually, including ones switching protocol, which HttpURLConnection
+ * refuses to follow. Compressed responses are requested and decoded explicitly to support deflate
+ * along with gzip.
+ */
+class HttpClient {
+  static final int DEFAULT_TIMEOUT_MS = 15000;
+  private static final String TAG = "HTC";
+  private static final int MAX_REDIRECTS = 5;
+  private static final int HTTP_TEMPORARY_REDIRECT = 307;
+  private static final int HTTP_PERMANENT_REDIRECT = 308;
+  private static final int MAX_IDLE_CONNECTIONS = 5;
+
+  static {
+    System.setProperty("http.keepAlive", "true");
+    System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+  }
+
+  static class Request {
+    @NonNull
+    final URL url;
+    @NonNull
+    String method = "GET";
+    @Nullable
+    String eTag;
+    @Nullable
+    String lastModified;
+    int connectTimeoutMs = DEFAULT_TIMEOUT_MS;
+    int readTimeoutMs = DEFAULT_TIMEOUT_MS;
+    boolean compress = true;
+    @Nullable
+    Deadline deadline;
+
+    Request(@NonNull URL url) {
+      this.url = url;
+    }
+
+    /** Sends HEAD request instead of GET. Response has no body, Content-Length isn't compressed */
+    @NonNull
+    Request head() {
+      method = "HEAD";
+      compress = false;
+      return this;
+    }
+
+    /**
+     * Sends conditional GET headers for given validators. If server responds with
+     * {@link HttpURLConnection#HTTP_NOT_MODIFIED}, response has no body to read.
+     *
+     * @param eTag         ETag header value of last successfully processed response
+     * @param lastModified Last-Modified header value of last successfully processed response
+     */
+    @NonNull
+    Request conditional(@Nullable String eTag, @Nullable String lastModified) {
+      this.eTag = eTag;
+      this.lastModified = lastModified;
+      return this;
+    }
+
+    @NonNull
+    Request timeouts(int connectTimeoutMs, int readTimeoutMs) {
+      this.connectTimeoutMs = connectTimeoutMs;
+      this.readTimeoutMs = readTimeoutMs;
+      return this;
+    }
+
+    /**
+     * Limits the whole request, including redirects and body transfer, by given deadline.
+     * Reading response body after deadline expiry throws {@link Deadline.ExceededException}
+     */
+    @NonNull
+    Request deadline(@NonNull Deadline deadline) {
+      this.deadline = deadline;
+      return this;
+    }
+  }
+
+  static class Response {
+    /** URL response was received from, after following redirects */
+    @NonNull
+    final URL url;
+    /** HTTP status code, or -1 for non-HTTP URLs */
+    final int code;
+    /** True if request was redirected and all the redirects were permanent */
+    final boolean permanentlyRedirected;
+    @NonNull
+    private final URLConnection connection;
+    @Nullable
+    private final Deadline deadline;
+    @Nullable
+    private InputStream body;
+
+    private Response(@NonNull URLConnection connection, int code, boolean permanentlyRedirected,
+                     @Nullable Deadline deadline) {
+      this.connection = connection;
+      this.url = connection.getURL();
+      this.code = code;
+      this.permanentlyRedirected = permanentlyRedirected;
+      this.deadline = deadline;
+    }
+
+    @Nullable
+    String getHeader(@NonNull String name) {
+      return connection.getHeaderField(name);
+    }
+
+    /** @return length of response body as sent by server (i.e. compressed), -1 if unknown */
+    int getContentLength() {
+      return connection.getContentLength();
+    }
+
+    /**
+     * @return decoded response body
+     * @throws IOException if response is an HTTP error
+     */
+    @NonNull
+    InputStream getBody() throws IOException {
+      if (body == null) {
+        InputStream stream = connection.getInputStream();
+        if (deadline != null) {
+          stream = new DeadlineInputStream(stream, deadline);
+        }
+        body = decode(stream, connection.getContentEncoding());
+      }
+      return body;
+    }
+
+    /** Releases response. Underlying connection is returned to the pool if possible */
+    void close() {
+      if (deadline != null && connection instanceof HttpURLConnection) {
+        deadline.detach((HttpURLConnection) connection);
+      }
+      try {
+        InputStream stream = body;
+        if (stream == null) {
+          stream = code >= HttpURLConnection.HTTP_BAD_REQUEST ?
+              ((HttpURLConnection) connection).getErrorStream() : connection.getInputStream();
+        }
+        if (stream != null) {
+          stream.close();
+        }
+      } catch (IOException exception) {
+        Log.d(TAG, "Failed to close response of " + url, exception);
+        disconnect();
+      }
+    }
+
+    /** Closes connection without returning it to the pool, i.e. to abort blocked reading */
+    void disconnect() {
+      if (connection instanceof HttpURLConnection) {
+        ((HttpURLConnection) connection).disconnect();
+      }
+    }
+  }
+
+  private HttpClient() {}
+
+  @NonNull
+  static Response execute(@NonNull Request request) throws IOException {
+    URL url = request.url;
+    Deadline deadline = request.deadline;
+    boolean permanent = true;
+    for (int redirects = 0; ; redirects++) {
+      URLConnection connection = url.openConnection();
+      int connectTimeoutMs = request.connectTimeoutMs;
+      int readTimeoutMs = request.readTimeoutMs;
+      if (deadline != null) {
+        deadline.check();
+        // zero timeout means infinity, so keep it positive
+        int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline.getRemainingMs()));
+        connectTimeoutMs = Math.min(connectTimeoutMs, remaining);
+        readTimeoutMs = Math.min(readTimeoutMs, remaining);
+      }
+      connection.setConnectTimeout(connectTimeoutMs);
+      connection.setReadTimeout(readTimeoutMs);
+      if (!(connection instanceof HttpURLConnection)) {
+        return new Response(connection, -1, false, deadline);
+      }
+      HttpURLConnection httpConnection = (HttpURLConnection) connection;
+      if (deadline != null) {
+        deadline.attach(httpConnection);
+      }
+      httpConnection.setInstanceFollowRedirects(false);
+      httpConnection.setRequestMethod(request.method);
+      // setting encoding explicitly disables transparent gzip handling of HttpURLConnection
+      httpConnection.setRequestProperty(
+          "Accept-Encoding", request.compress ? "gzip, deflate" : "identity");
+      if (request.eTag != null) {
+        httpConnection.setRequestProperty("If-None-Match", request.eTag);
+      }
+      if (request.lastModified != null) {
+        httpConnection.setRequestProperty("If-Modified-Since", request.lastModified);
+      }
+      int code;
+      try {
+        code = httpConnection.getResponseCode();
+      } catch (IOException exception) {
+        if (deadline != null) {
+          deadline.detach(httpConnection);
+          // report disconnection by cancelled deadline as such
+          deadline.check();
+        }
+        throw exception;
+      }
+      String location = httpConnection.getHeaderField("Location");
+      if (!isRedirect(code) || location == null) {
+        return new Response(connection, code, permanent && redirects > 0, deadline);
+      }
+      new Response(connection, code, false, deadline).close();
+      if (redirects == MAX_REDIRECTS) {
+        throw new IOException("Too many redirects: " + request.url);
+      }
+      permanent &= code == HttpURLConnection.HTTP_MOVED_PERM || code == HTTP_PERMANENT_REDIRECT;
+      URL newUrl = new URL(url, location);
+      Log.d(TAG, "Following redirect (" + code + ") from " + url + " to " + newUrl);
+      url = newUrl;
+    }
+  }
+
+  /** Checks deadline before each read, so that slowly sent body can't exceed it */
+  private static class DeadlineInputStream extends FilterInputStream {
+    private final Deadline deadline;
+
+    DeadlineInputStream(@NonNull InputStream in, @NonNull Deadline deadline) {
+      super(in);
+      this.deadline = deadline;
+    }
+
+    @Override
+    public int read() throws IOException {
+      deadline.check();
+      return super.read();
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+      deadline.check();
+      try {
+        return super.read(buffer, offset, count);
+      } catch (IOException exception) {
+        deadline.check();
+        throw exception;
+      }
+    }
+  }
+
+  private static boolean isRedirect(int code) {
+    return code == HttpURLConnection.HTTP_MOVED_PERM || code == HttpURLConnection.HTTP_MOVED_TEMP ||
+        code == HttpURLConnection.HTTP_SEE_OTHER || code == HTTP_TEMPORARY_REDIRECT ||
+        code == HTTP_PERMANENT_REDIRECT;
+  }
+
+  @NonNull
+  private static InputStream decode(@NonNull InputStream stream, @Nullable String encoding)
+      throws IOException {
+    if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+      return new GZIPInputStream(stream);
+    }
+    if ("deflate".equalsIgnoreCase(encoding)) {
+      // deflate should be zlib-wrapped, but some servers send raw deflate stream. Check header
+      BufferedInputStream buffered = new BufferedInputStream(stream);
+      buffered.mark(2);
+      int cmf = buffered.read();
+      int flg = buffered.read();
+      buffered.reset();
+      boolean zlib = (cmf & 0x0F) == 8 && flg >= 0 && ((cmf << 8) | flg) % 31 == 0;
+      final Inflater inflater = new Inflater(!zlib);
+      return new InflaterInputStream(buffered, inflater) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            inflater.end();
+          }
+        }
+      };
+    }
+    return stream;
+  }
+}
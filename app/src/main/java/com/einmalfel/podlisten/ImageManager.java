@@ -12,12 +12,13 @@ import android.view.WindowManager;
 
 import com.einmalfel.podlisten.support.UnitConverter;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.channels.FileLock;
 
@@ -28,6 +29,8 @@ public class ImageManager {
   private static final String TAG = "IMG";
   private static final int WIDTH_DP = 70;
   private static final int PAGES_TO_CACHE = 10;
+  /** Images are read into memory to be decoded, larger ones are rejected [bytes] */
+  private static final int MAX_IMAGE_SIZE = 4 * 1024 * 1024;
   private final int widthPx;
   private static ImageManager instance;
 
@@ -83,29 +86,42 @@ public class ImageManager {
     return inSampleSize;
   }
 
-  public void download(long id, URL url) throws IOException {
-
-    HttpURLConnection urlConnection = null;
-    Bitmap bitmap = null;
+  /** @param deadline if not null, limits image transfer time */
+  public void download(long id, URL url, @Nullable Deadline deadline) throws IOException {
+    // read image into memory once, as it needs to be decoded twice: for bounds and for content
+    byte[] data;
+    HttpClient.Request request = new HttpClient.Request(url);
+    if (deadline != null) {
+      request.deadline(deadline);
+    }
+    HttpClient.Response response = HttpClient.execute(request);
     try {
-      urlConnection = (HttpURLConnection) PodcastHelper.openConnectionWithTO(url);
-      urlConnection.connect();
-      BitmapFactory.Options options = new BitmapFactory.Options();
-      options.inJustDecodeBounds = true;
-      bitmap = BitmapFactory.decodeStream(urlConnection.getInputStream(), null, options);
-      urlConnection.disconnect();
-      urlConnection = (HttpURLConnection) PodcastHelper.openConnectionWithTO(url);
-      options.inJustDecodeBounds = false;
-      options.inSampleSize = calculateInSampleSize(options, widthPx);
-      Log.d(TAG, "Downloading " + url + ". Sampling factor: " + options.inSampleSize);
-      bitmap = BitmapFactory.decodeStream(urlConnection.getInputStream(), null, options);
-      if (bitmap == null) {
-        throw new IOException("Failed to load image from " + url);
+      if (response.getContentLength() > MAX_IMAGE_SIZE) {
+        throw new IOException("Image " + url + " is too big: " + response.getContentLength());
       }
-    } finally {
-      if (urlConnection != null) {
-        urlConnection.disconnect();
+      InputStream body = response.getBody();
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      byte[] chunk = new byte[8 * 1024];
+      int read;
+      while ((read = body.read(chunk)) != -1) {
+        if (buffer.size() + read > MAX_IMAGE_SIZE) {
+          throw new IOException("Image " + url + " exceeds " + MAX_IMAGE_SIZE + " bytes");
+        }
+        buffer.write(chunk, 0, read);
       }
+      data = buffer.toByteArray();
+    } finally {
+      response.close();
+    }
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = calculateInSampleSize(options, widthPx);
+    Log.d(TAG, "Downloaded " + url + ". Sampling factor: " + options.inSampleSize);
+    Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    if (bitmap == null) {
+      throw new IOException("Failed to load image from " + url);
     }
     Bitmap scaled = Bitmap.createScaledBitmap(
         bitmap, widthPx, bitmap.getHeight() * widthPx / bitmap.getWidth(), true);
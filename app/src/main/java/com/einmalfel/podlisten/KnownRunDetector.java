@@ -0,0 +1,47 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.Nullable;
+
+import java.util.Date;
+
+/**
+ * Decides when incremental refresh may stop parsing a feed. Feeds are normally sorted newest
+ * first, so a run of items that are already stored in DB means the rest of the feed is known too.
+ * Item dated later than previous one reveals unsorted feed, after that parsing is never stopped.
+ */
+class KnownRunDetector {
+  private final int runToStop;
+  private boolean sorted = true;
+  private Date previousDate;
+  private int knownInRow = 0;
+
+  /** @param runToStop number of consecutive known items that allows to stop parsing */
+  KnownRunDetector(int runToStop) {
+    this.runToStop = runToStop;
+  }
+
+  /** Should be called for every feed item in order of appearance, including skipped ones */
+  void onDate(@Nullable Date date) {
+    if (date != null) {
+      if (previousDate != null && date.after(previousDate)) {
+        sorted = false;
+      }
+      previousDate = date;
+    }
+  }
+
+  /**
+   * Should be called for items that could be stored in DB, after {@link #onDate}
+   *
+   * @param known true if item is already stored in DB
+   * @return true if parsing may stop after this item
+   */
+  boolean onItem(boolean known) {
+    knownInRow = known ? knownInRow + 1 : 0;
+    return sorted && knownInRow >= runToStop;
+  }
+
+  boolean isSorted() {
+    return sorted;
+  }
+}
@@ -62,9 +62,9 @@ public class NewEpisodesFragment extends DebuggableFragment implements LoaderMan
   @Override
   public Loader<Cursor> onCreateLoader(int id, Bundle args) {
     return new CursorLoader(activity,
-        Provider.episodeJoinPodcastUri,
+        Provider.getStateUri(Provider.T_E_JOIN_P, Provider.ESTATE_NEW),
         EpisodeListAdapter.REQUIRED_DB_COLUMNS,
-        Provider.K_ESTATE + " = " + Provider.ESTATE_NEW,
+        null,
         null,
         Provider.K_EDATE);
   }
@@ -257,9 +257,9 @@ public class PlayerService extends DebuggableService implements MediaPlayer.OnSe
     initPlayer();
     playableEpisodesLoader = new CursorLoader(
         this,
-        Provider.episodeUri, new String[]{Provider.K_ID},
-        Provider.K_ESTATE + " == " + Provider.ESTATE_IN_PLAYLIST + " AND " +
-            Provider.K_EDFIN + " == " + Provider.EDFIN_COMPLETE,
+        Provider.getStateUri(Provider.T_EPISODE, Provider.ESTATE_IN_PLAYLIST),
+        new String[]{Provider.K_ID},
+        Provider.K_EDFIN + " == " + Provider.EDFIN_COMPLETE,
         null,
         Preferences.getInstance().getSortingMode().toSql());
     playableEpisodesLoader.registerListener(LOADER_ID, this);
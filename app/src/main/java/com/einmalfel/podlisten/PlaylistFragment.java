@@ -102,9 +102,10 @@ public class PlaylistFragment extends DebuggableFragment implements
   @Override
   public Loader<Cursor> onCreateLoader(int id, Bundle args) {
     return new CursorLoader(activity,
-                            Provider.episodeJoinPodcastUri,
+                            Provider.getStateUri(Provider.T_E_JOIN_P,
+                                                 Provider.ESTATE_IN_PLAYLIST),
                             EpisodeListAdapter.REQUIRED_DB_COLUMNS,
-                            Provider.K_ESTATE + " = " + Provider.ESTATE_IN_PLAYLIST,
+                            null,
                             null,
                             Preferences.getInstance().getSortingMode().toSql());
   }
@@ -12,10 +12,6 @@ import android.text.format.DateUtils;
 import android.util.Log;
 import android.view.View;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -26,29 +22,10 @@ import java.util.Locale;
  */
 public class PodcastHelper {
   private static final String TAG = "EPM";
-  private static final int TIMEOUT_MS = 15000;
   private static PodcastHelper instance;
   private final Context context = PodListenApp.getContext();
   private final ContentResolver resolver = context.getContentResolver();
 
-  static URLConnection openConnectionWithTO(URL url) throws IOException {
-    URLConnection result = url.openConnection();
-    result.setConnectTimeout(TIMEOUT_MS);
-    result.setReadTimeout(TIMEOUT_MS);
-    if (result instanceof HttpURLConnection) {
-      HttpURLConnection httpURLConnection = (HttpURLConnection) result;
-      httpURLConnection.setInstanceFollowRedirects(true);
-      if (httpURLConnection.getResponseCode() == HttpURLConnection.HTTP_MOVED_PERM ||
-          httpURLConnection.getResponseCode() == HttpURLConnection.HTTP_MOVED_TEMP) {
-        httpURLConnection.disconnect();
-        URL newUrl = new URL(url, httpURLConnection.getHeaderField("Location"));
-        Log.d(TAG, "Following redirect from " + url + " to " + newUrl);
-        return openConnectionWithTO(newUrl);
-      }
-    }
-    return result;
-  }
-
   //  not making synchronized method to speed up access
   public static PodcastHelper getInstance() {
     if (instance == null) {
@@ -116,10 +93,14 @@ public class PodcastHelper {
       Log.w(TAG, "Feed download protocol defaults to http, new url: " + url);
     }
     long id = generateId(url);
-    Cursor c = resolver.query(Provider.getUri(Provider.T_PODCAST, id), null, null, null, null);
+    // permanently redirected feed keeps ID generated from its old URL, so look its URL up too
+    Cursor c = resolver.query(
+        Provider.podcastUri, new String[]{Provider.K_ID},
+        Provider.K_ID + " == ? OR " + Provider.K_PFURL + " == ?",
+        new String[]{Long.toString(id), url}, null);
     int count = c.getCount();
     c.close();
-    if (count == 1) {
+    if (count > 0) {
       return 0;
     } else {
       ContentValues values = new ContentValues(5);
@@ -56,7 +56,7 @@ public class PodcastListAdapter extends CursorRecyclerAdapter<PodcastViewHolder>
     long id = cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_ID));
     holder.bind(cursor.getInt(cursor.getColumnIndexOrThrow(Provider.K_PSTATE)),
                 cursor.getString(cursor.getColumnIndexOrThrow(Provider.K_PNAME)),
-                cursor.getString(cursor.getColumnIndexOrThrow(Provider.K_PDESCR)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(DescriptionLoader.K_LENGTH)) > 0,
                 cursor.getString(cursor.getColumnIndexOrThrow(Provider.K_PFURL)),
                 cursor.getString(cursor.getColumnIndexOrThrow(Provider.K_PURL)),
                 id,
@@ -5,7 +5,7 @@ import android.graphics.Bitmap;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.RecyclerView;
-import android.text.Html;
+import android.text.Spanned;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.view.View;
@@ -30,6 +30,14 @@ public class PodcastViewHolder extends RecyclerView.ViewHolder {
   private long id = 0;
   private boolean expanded = false;
   private String title;
+  private final DescriptionLoader.Callback descriptionCallback = new DescriptionLoader.Callback() {
+    @Override
+    public void onDescriptionLoaded(long id, Spanned description) {
+      if (id == PodcastViewHolder.this.id && expanded && description != null) {
+        descriptionView.setText(description, TextView.BufferType.SPANNABLE);
+      }
+    }
+  };
 
   public PodcastViewHolder(View layout, final PodcastListAdapter.ItemClickListener listener,
                            final PodcastListAdapter adapter) {
@@ -64,8 +72,8 @@ public class PodcastViewHolder extends RecyclerView.ViewHolder {
     });
   }
 
-  void bind(int state, String title, String description, String url, String podcastPage, long id,
-            String shortDescr, String error, long timestamp, boolean expanded) {
+  void bind(int state, String title, boolean hasDescription, String url, String podcastPage,
+            long id, String shortDescr, String error, long timestamp, boolean expanded) {
     titleView.setText(title);
     titleView.setText(title == null ? context.getString(R.string.podcast_no_title) : title);
     urlView.setText(podcastPage == null ? url : podcastPage);
@@ -90,14 +98,20 @@ public class PodcastViewHolder extends RecyclerView.ViewHolder {
     }
 
 
-    if (description == null || description.isEmpty()) {
+    if (!hasDescription) {
       descriptionView.setVisibility(View.GONE);
       dividerBottom.setVisibility(View.GONE);
     } else {
-      if (expanded) {
-        descriptionView.setText(Html.fromHtml(description), TextView.BufferType.SPANNABLE);
+      DescriptionLoader loader = DescriptionLoader.getInstance();
+      Spanned description = expanded ? loader.getCached(Provider.T_PODCAST, id, shortDescr) : null;
+      if (description != null) {
+        descriptionView.setText(description, TextView.BufferType.SPANNABLE);
       } else {
+        // if expanded, short description is shown till full one is loaded
         descriptionView.setText(shortDescr, TextView.BufferType.NORMAL);
+        if (expanded) {
+          loader.load(Provider.T_PODCAST, id, shortDescr, descriptionCallback);
+        }
       }
       descriptionView.setVisibility(View.VISIBLE);
       dividerBottom.setVisibility(View.VISIBLE);
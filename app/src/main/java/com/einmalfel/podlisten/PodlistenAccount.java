@@ -4,6 +4,7 @@ import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.content.Intent;
 import android.os.Bundle;
 
 public class PodlistenAccount {
@@ -31,14 +32,38 @@ public class PodlistenAccount {
   }
 
   /**
+   * If sync is already running, given feed will be refreshed before other feeds pending in it.
+   *
    * @param feedId ID of feed to sync. If zero is given, will request sync for all feeds
    */
   void refresh(long feedId) {
+    if (feedId != 0) {
+      Intent intent = new Intent(EpisodesSyncAdapter.PRIORITIZE_FEED_ACTION);
+      intent.setPackage(context.getPackageName());
+      intent.putExtra(EpisodesSyncAdapter.FEED_ID_EXTRA_OPTION, feedId);
+      context.sendBroadcast(intent);
+    }
+    Bundle settingsBundle = new Bundle();
+    settingsBundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+    settingsBundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+    settingsBundle.putBoolean(ContentResolver.SYNC_EXTRAS_DO_NOT_RETRY, true);
+    settingsBundle.putLong(EpisodesSyncAdapter.FEED_ID_EXTRA_OPTION, feedId);
+    ContentResolver.requestSync(account, appId, settingsBundle);
+  }
+
+  /**
+   * Re-parses cached copy of the feed without downloading it, e.g. to pick up items skipped by
+   * older parser. Feed is downloaded if it isn't cached.
+   *
+   * @param feedId ID of feed to re-parse. If zero is given, all feeds are re-parsed
+   */
+  void reparse(long feedId) {
     Bundle settingsBundle = new Bundle();
     settingsBundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
     settingsBundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
     settingsBundle.putBoolean(ContentResolver.SYNC_EXTRAS_DO_NOT_RETRY, true);
     settingsBundle.putLong(EpisodesSyncAdapter.FEED_ID_EXTRA_OPTION, feedId);
+    settingsBundle.putBoolean(EpisodesSyncAdapter.REPARSE_EXTRA_OPTION, true);
     ContentResolver.requestSync(account, appId, settingsBundle);
   }
 
@@ -29,6 +29,7 @@ public class Preferences implements SharedPreferences.OnSharedPreferenceChangeLi
     CURRENT_ACTIVITY,
     PAUSE_ON_DISCONNECT,
     FIX_SKIP_ENDING,
+    PARSER_VERSION,
   }
 
   enum JumpInterval {
@@ -346,6 +347,17 @@ public class Preferences implements SharedPreferences.OnSharedPreferenceChangeLi
           }
         }
         break;
+      case PARSER_VERSION:
+        int parserVersion = sPrefs.getInt(Key.PARSER_VERSION.toString(), 0);
+        if (parserVersion != FeedParser.VERSION) {
+          sPrefs.edit().putInt(Key.PARSER_VERSION.toString(), FeedParser.VERSION).commit();
+          // zero means fresh install, there is nothing parsed by older parser
+          if (parserVersion != 0) {
+            Log.i(TAG, "Parser updated from " + parserVersion + ", re-parsing cached feeds");
+            PodlistenAccount.getInstance().reparse(0);
+          }
+        }
+        break;
       case PLAYER_FOREGROUND:
         playerForeground = sPrefs.getBoolean(Key.PLAYER_FOREGROUND.toString(), false);
         break;
@@ -78,7 +78,7 @@ public class PreferencesFragment extends PreferenceFragmentCompat {
     }
 
     Cursor cursor = getActivity().getContentResolver().query(
-        Provider.podcastUri, null, null, null, null);
+        Provider.podcastUri, new String[]{Provider.K_ID}, null, null, null);
     if (cursor == null || cursor.getCount() == 0) {
       Preference opmlExportPreference = findPreference("OPML_EXPORT");
       opmlExportPreference.setSummary(R.string.preferences_opml_export_summary_disabled);
@@ -1,17 +1,34 @@
 package com.einmalfel.podlisten;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.einmalfel.podlisten.support.LongBloomFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class Provider extends ContentProvider {
   public enum RefreshMode {
@@ -79,6 +96,8 @@ public class Provider extends ContentProvider {
   public static final String T_EPISODE = "episode";
   public static final String T_PODCAST = "podcast";
   public static final String T_E_JOIN_P = "episode_join_podcast";
+  public static final String T_SYNC = "sync_session"; // feeds of last unfinished sync, by feed ID
+  public static final String T_TOMBSTONE = "episode_tombstone"; // compacted GONE episodes
   public static final String K_ID = "_ID";
   public static final String K_EID = T_EPISODE + "." + K_ID;
   public static final String K_PID = T_PODCAST + "." + K_ID;
@@ -109,6 +128,17 @@ public class Provider extends ContentProvider {
   public static final String K_PTSTAMP = "podcast_timestamp";
   public static final String K_PATSTAMP = "podcast_add_timestamp";
   public static final String K_PERROR = "podcast_error"; // string describing feed refresh problem
+  public static final String K_PETAG = "podcast_etag"; // ETag of last successfully parsed feed
+  public static final String K_PLMODIFIED = "podcast_last_modified"; // Last-Modified header value
+  public static final String K_PFTSTAMP = "podcast_full_timestamp"; // last refresh w/o early stop
+  public static final String K_PHASH = "podcast_hash"; // hash of feed body, if it had no validators
+  public static final String K_PNEXT = "podcast_next_refresh"; // auto-sync skips feed till then
+  public static final String K_PTFILTER = "podcast_tombstone_filter"; // Bloom filter of tombstones
+  public static final String K_SSTART = "sync_start"; // [ms], start time of original sync
+  public static final String K_SRESULT = "sync_result";
+  public static final String K_SNEW = "sync_new_episodes"; // new episodes found in feed
+  public static final String K_TPID = "tombstone_podcast_id";
+  public static final String K_TTSTAMP = "tombstone_timestamp"; // same meaning as K_ETSTAMP
   public static final int ESTATE_NEW = 0;
   public static final int ESTATE_LEAVING = 1; // marked for deletion. Will be deleted in background
   public static final int ESTATE_IN_PLAYLIST = 2;
@@ -120,6 +150,9 @@ public class Provider extends ContentProvider {
   public static final int PSTATE_NEW = 0;
   public static final int PSTATE_SEEN_ONCE = 1;
   public static final int PSTATE_LAST_REFRESH_FAILED = 2;
+  public static final int SRESULT_PENDING = 0;
+  public static final int SRESULT_SUCCESS = 1;
+  public static final int SRESULT_FAILED = 2;
 
   public static final String authorityBase = "com.einmalfel.podlisten";
   public static final String commonUriString = ContentResolver.SCHEME_CONTENT + "://" + authorityBase;
@@ -127,12 +160,55 @@ public class Provider extends ContentProvider {
   public static final Uri podcastUri = Uri.parse(commonUriString + '/' + T_PODCAST);
   public static final Uri episodeUri = Uri.parse(commonUriString + '/' + T_EPISODE);
   public static final Uri episodeJoinPodcastUri = Uri.parse(commonUriString + '/' + T_E_JOIN_P);
+  public static final Uri syncUri = Uri.parse(commonUriString + '/' + T_SYNC);
+  public static final Uri tombstoneUri = Uri.parse(commonUriString + '/' + T_TOMBSTONE);
   public static final int SHORT_DESCR_LENGTH = 200;
-  private static final String[] TABLES = {T_EPISODE, T_PODCAST, T_E_JOIN_P};
+  /**
+   * {@link #call} method. Deletes episodes in state given in arg from db or sets them GONE, see
+   * {@link #cleanupEpisodes}. Returns IDs of processed episodes in {@link #EXTRA_EPISODE_IDS} and
+   * IDs of their downloads in {@link #EXTRA_DOWNLOAD_IDS}, so that caller could remove their media.
+   * Cleanup of GONE episodes also compacts them into tombstones, see {@link #compactGoneEpisodes}
+   */
+  public static final String METHOD_CLEANUP_EPISODES = "cleanup_episodes";
+  public static final String EXTRA_EPISODE_IDS = "episode_ids";
+  public static final String EXTRA_DOWNLOAD_IDS = "download_ids";
+  /**
+   * {@link #call} method. Checkpoints write-ahead log, so that it doesn't grow after bulk writes.
+   * Arg is checkpoint mode: PASSIVE (default if arg is null), FULL or RESTART
+   */
+  public static final String METHOD_CHECKPOINT = "checkpoint";
+  // join should be the last one
+  private static final String[] TABLES = {T_EPISODE, T_PODCAST, T_SYNC, T_TOMBSTONE, T_E_JOIN_P};
   private static final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
   private static final String TAG = "PLP";
+  private static final String STATE_PATH = "state";
+  /**
+   * Root of notification URIs of episode state partitions. Changes of episodes are notified to
+   * URIs of partitions the episodes belonged to or moved to, see {@link #getStateUri}
+   */
+  private static final Uri stateRootUri = Uri.parse(commonUriString + '/' + STATE_PATH);
+  /** Episode lists show these podcast columns, so their changes are notified to all partitions */
+  private static final String[] JOINED_PODCAST_COLUMNS = {K_PNAME};
+  /** Playback progress updates are notified not more often than this [ms] */
+  private static final long PROGRESS_NOTIFICATION_PERIOD = 10 * 1000;
+  /** GONE episodes per feed kept in episode table for feed history, see compactGoneEpisodes */
+  private static final int GONE_HISTORY_SIZE = 100;
   private static HelperV1 helper;
   private ContentResolver resolver;
+  /** Notifications postponed till the end of batch running on current thread, if any */
+  private final ThreadLocal<Set<Uri>> batchNotifications = new ThreadLocal<>();
+  /** Notifications of playback progress postponed till the end of throttling period */
+  private final Set<Uri> progressNotifications = new HashSet<>();
+  private final Runnable progressNotifier = new Runnable() {
+    @Override
+    public void run() {
+      sendProgressNotifications();
+    }
+  };
+  private Handler handler;
+  // guarded by progressNotifications
+  private long lastProgressNotification = 0;
+  private boolean progressNotificationPosted = false;
 
   public static Uri getUri(String table, Long id) {
     Uri.Builder builder = new Uri.Builder()
@@ -145,11 +221,27 @@ public class Provider extends ContentProvider {
     return builder.build();
   }
 
+  /**
+   * @param table {@link #T_EPISODE} or {@link #T_E_JOIN_P}
+   * @return URI to query episodes in given state. Cursors returned for it are notified only about
+   * changes of episodes that are or were in this state, and of podcast columns shown with them
+   */
+  public static Uri getStateUri(String table, int state) {
+    return getUri(table, null).buildUpon()
+                              .appendPath(STATE_PATH)
+                              .appendPath(Integer.toString(state))
+                              .build();
+  }
+
+  private static Uri getStateNotificationUri(int state) {
+    return stateRootUri.buildUpon().appendPath(Integer.toString(state)).build();
+  }
+
   @Override
   public int delete(Uri uri, String selection, String[] selectionArgs) {
     int code = matcher.match(uri);
-    if (code == -1) {
-      Log.e(TAG, "Wrong query uri " + uri + ". Code " + code);
+    if (code == -1 || code >= 2 * TABLES.length) {
+      Log.e(TAG, "Wrong delete uri " + uri + ". Code " + code);
       return 0;
     }
     if (code >= TABLES.length) {
@@ -163,17 +255,129 @@ public class Provider extends ContentProvider {
 
     SQLiteDatabase db = helper.getWritableDatabase();
     int result;
+    Set<Integer> states = null;
+    db.beginTransactionNonExclusive();
     try {
+      if (TABLES[code].equals(T_EPISODE)) {
+        states = queryEpisodeStates(db, selection, selectionArgs);
+      }
       result = db.delete(TABLES[code], selection, selectionArgs);
+      db.setTransactionSuccessful();
     } catch (RuntimeException ignored) {
       return 0;
+    } finally {
+      db.endTransaction();
     }
     if (result > 0) {
-      resolver.notifyChange(uri, null);
+      if (states != null) {
+        notifyEpisodesChange(uri, states);
+      } else {
+        notifyChange(code, uri);
+        if (TABLES[code].equals(T_PODCAST)) {
+          // episodes of deleted podcast lose podcast columns
+          notifyUri(stateRootUri);
+        }
+      }
     }
     return result;
   }
 
+  /** Notifies observers about data change, unless table isn't displayed (so nobody observes it) */
+  private void notifyChange(int code, @NonNull Uri uri) {
+    if (!TABLES[code].equals(T_SYNC) && !TABLES[code].equals(T_TOMBSTONE)) {
+      notifyUri(uri);
+    }
+  }
+
+  /** Notifies table or row URI of episodes and URIs of given state partitions */
+  private void notifyEpisodesChange(@NonNull Uri uri, @NonNull Set<Integer> states) {
+    notifyUri(uri);
+    for (int state : states) {
+      notifyUri(getStateNotificationUri(state));
+    }
+  }
+
+  private void notifyUri(@NonNull Uri uri) {
+    Set<Uri> batch = batchNotifications.get();
+    if (batch == null) {
+      resolver.notifyChange(uri, null);
+    } else {
+      batch.add(uri);
+    }
+  }
+
+  /**
+   * Notifies progress updates at most once per {@link #PROGRESS_NOTIFICATION_PERIOD}. Update
+   * coming after a quiet period is notified right away, later ones are collected and notified at
+   * the end of the period, so that observers get the final position
+   */
+  private void notifyProgressChange(@NonNull Uri uri, @NonNull Set<Integer> states) {
+    synchronized (progressNotifications) {
+      progressNotifications.add(uri);
+      for (int state : states) {
+        progressNotifications.add(getStateNotificationUri(state));
+      }
+      if (progressNotificationPosted) {
+        return;
+      }
+      long delay = lastProgressNotification + PROGRESS_NOTIFICATION_PERIOD -
+          SystemClock.elapsedRealtime();
+      if (delay > 0) {
+        progressNotificationPosted = handler.postDelayed(progressNotifier, delay);
+        if (progressNotificationPosted) {
+          return;
+        }
+      }
+    }
+    sendProgressNotifications();
+  }
+
+  private void sendProgressNotifications() {
+    Set<Uri> uris;
+    synchronized (progressNotifications) {
+      uris = new HashSet<>(progressNotifications);
+      progressNotifications.clear();
+      progressNotificationPosted = false;
+      lastProgressNotification = SystemClock.elapsedRealtime();
+    }
+    sendBatchNotifications(uris);
+  }
+
+  /** Sends notifications postponed during a batch, each one once */
+  private void sendBatchNotifications(@NonNull Set<Uri> uris) {
+    for (Uri uri : uris) {
+      // observers of descendant URIs are notified about changes of their ancestor anyway
+      boolean coveredByAncestor = false;
+      for (Uri other : uris) {
+        if (uri.toString().startsWith(other.toString() + '/')) {
+          coveredByAncestor = true;
+          break;
+        }
+      }
+      if (!coveredByAncestor) {
+        resolver.notifyChange(uri, null);
+      }
+    }
+  }
+
+  /** @return states of episodes matching selection */
+  @NonNull
+  private static Set<Integer> queryEpisodeStates(@NonNull SQLiteDatabase db,
+                                                 @Nullable String selection,
+                                                 @Nullable String[] selectionArgs) {
+    Cursor cursor = db.query(true, T_EPISODE, new String[]{K_ESTATE}, selection, selectionArgs,
+                             null, null, null, null);
+    try {
+      Set<Integer> result = new HashSet<>(cursor.getCount());
+      while (cursor.moveToNext()) {
+        result.add(cursor.getInt(0));
+      }
+      return result;
+    } finally {
+      cursor.close();
+    }
+  }
+
   @Override
   public String getType(Uri uri) {
     throw new UnsupportedOperationException("Not yet implemented");
@@ -192,23 +396,326 @@ public class Provider extends ContentProvider {
     }
 
     SQLiteDatabase db = helper.getWritableDatabase();
+    if (TABLES[code].equals(T_EPISODE) && isTombstoned(db, values)) {
+      Log.i(TAG, "Skipping insert of tombstoned episode " + values.getAsLong(K_ID));
+      return null;
+    }
     long id = db.insert(TABLES[code], null, values);
     if (id == -1) {
       Log.e(TAG, "SQLite insert failed " + uri + ". Values " + values);
       return null;
     }
     Uri newUri = getUri(TABLES[code], id);
-    resolver.notifyChange(newUri, null);
+    if (TABLES[code].equals(T_EPISODE)) {
+      Set<Integer> states = new HashSet<>(1);
+      addState(states, values);
+      notifyEpisodesChange(newUri, states);
+    } else {
+      notifyChange(code, newUri);
+    }
     return newUri;
   }
 
+  /**
+   * Inserts all rows in a single transaction. Rows failed to insert are skipped, as well as
+   * episodes compacted into tombstones
+   */
+  @Override
+  public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+    int code = matcher.match(uri);
+    if (code < 0 || code >= TABLES.length) {
+      Log.e(TAG, "Wrong insert uri " + uri + ". Code " + code);
+      return 0;
+    }
+    if (code == TABLES.length - 1) {
+      Log.e(TAG, "Trying to run insert on table join " + uri);
+      return 0;
+    }
+
+    SQLiteDatabase db = helper.getWritableDatabase();
+    int result = 0;
+    Set<Integer> states = new HashSet<>();
+    db.beginTransactionNonExclusive();
+    try {
+      boolean episodes = TABLES[code].equals(T_EPISODE);
+      for (ContentValues rowValues : values) {
+        if (episodes && isTombstoned(db, rowValues)) {
+          continue;
+        }
+        if (db.insert(TABLES[code], null, rowValues) == -1) {
+          Log.e(TAG, "SQLite insert failed " + uri + ". Values " + rowValues);
+        } else {
+          addState(states, rowValues);
+          result++;
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    if (result > 0) {
+      if (TABLES[code].equals(T_EPISODE)) {
+        notifyEpisodesChange(uri, states);
+      } else {
+        notifyChange(code, uri);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Episode ID is a hash of its GUID, so the same episode could be found in other feed. Once it's
+   * compacted into tombstone it mustn't be inserted again, no matter which feed it comes from
+   *
+   * @return true if episode with ID given in values is tombstoned
+   */
+  private static boolean isTombstoned(@NonNull SQLiteDatabase db, @NonNull ContentValues values) {
+    Long id = values.getAsLong(K_ID);
+    return id != null && DatabaseUtils.queryNumEntries(db, T_TOMBSTONE, K_ID + " == " + id) > 0;
+  }
+
+  /** Adds state of episode set by values to states, if values contain it */
+  private static void addState(@NonNull Set<Integer> states, @NonNull ContentValues values) {
+    Integer state = values.getAsInteger(K_ESTATE);
+    if (state != null) {
+      states.add(state);
+    }
+  }
+
+  /**
+   * Applies all operations in a single transaction. Change notifications are suppressed while
+   * operations run and are sent once the batch is committed, one per changed URI
+   */
+  @NonNull
+  @Override
+  public ContentProviderResult[] applyBatch(
+      @NonNull ArrayList<ContentProviderOperation> operations)
+      throws OperationApplicationException {
+    SQLiteDatabase db = helper.getWritableDatabase();
+    Set<Uri> notifications = new LinkedHashSet<>();
+    ContentProviderResult[] result;
+    batchNotifications.set(notifications);
+    db.beginTransactionNonExclusive();
+    try {
+      result = super.applyBatch(operations);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      batchNotifications.set(null);
+    }
+    sendBatchNotifications(notifications);
+    return result;
+  }
+
+  @Override
+  public Bundle call(@NonNull String method, String arg, Bundle extras) {
+    switch (method) {
+      case METHOD_CLEANUP_EPISODES:
+        try {
+          return cleanupEpisodes(Integer.parseInt(arg));
+        } catch (NumberFormatException exception) {
+          Log.e(TAG, "Wrong episode state " + arg, exception);
+          return null;
+        }
+      case METHOD_CHECKPOINT:
+        checkpoint(arg == null ? "PASSIVE" : arg);
+        return null;
+      default:
+        Log.e(TAG, "Unknown method " + method);
+        return null;
+    }
+  }
+
+  private void checkpoint(@NonNull String mode) {
+    if (!mode.equals("PASSIVE") && !mode.equals("FULL") && !mode.equals("RESTART")) {
+      Log.e(TAG, "Wrong checkpoint mode " + mode);
+      return;
+    }
+    Cursor cursor = helper.getWritableDatabase().rawQuery(
+        "PRAGMA wal_checkpoint(" + mode + ')', null);
+    try {
+      // result row: busy flag, log size and number of checkpointed frames [pages]
+      if (cursor.moveToFirst()) {
+        Log.i(TAG, "WAL checkpoint: busy " + cursor.getInt(0) + ", log size " +
+            cursor.getInt(1) + ", checkpointed " + cursor.getInt(2));
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Episodes absent in feed or belonging to deleted subscription are deleted, others are set GONE
+   * with their download state reset. For GONE state only episodes that have to be deleted or still
+   * have media are processed. Everything is done by a few set-based statements in one transaction.
+   */
+  @NonNull
+  private Bundle cleanupEpisodes(int state) {
+    String podcastTimestamp = "(SELECT " + K_PTSTAMP + " FROM " + T_PODCAST + " WHERE " + K_PID +
+        " == " + T_EPISODE + '.' + K_EPID + ')';
+    // timestamp is null if subscription is deleted
+    String absent = podcastTimestamp + " IS NULL OR " + K_ETSTAMP + " < " + podcastTimestamp;
+    String where = K_ESTATE + " == " + state;
+    if (state == ESTATE_GONE) {
+      where += " AND (" + absent + " OR " + K_EDFIN + " != 0 OR " + K_EDID + " != 0)";
+    }
+
+    SQLiteDatabase db = helper.getWritableDatabase();
+    long[] episodeIds;
+    long[] downloadIds;
+    db.beginTransactionNonExclusive();
+    try {
+      Cursor cursor = db.query(
+          T_EPISODE, new String[]{K_ID, K_EDID}, where, null, null, null, null);
+      try {
+        episodeIds = new long[cursor.getCount()];
+        int downloads = 0;
+        downloadIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+          episodeIds[i] = cursor.getLong(0);
+          if (cursor.getLong(1) != 0) {
+            downloadIds[downloads++] = cursor.getLong(1);
+          }
+        }
+        downloadIds = Arrays.copyOf(downloadIds, downloads);
+      } finally {
+        cursor.close();
+      }
+      if (episodeIds.length > 0) {
+        int deleted = db.delete(T_EPISODE, where + " AND (" + absent + ')', null);
+        ContentValues values = new ContentValues(3);
+        values.put(K_ESTATE, ESTATE_GONE);
+        values.put(K_EDFIN, 0);
+        values.put(K_EDID, 0);
+        int updated = db.update(T_EPISODE, values, where, null);
+        Log.i(TAG, "Episodes cleanup: " + deleted + " deleted, " + updated + " set GONE");
+      }
+      if (state == ESTATE_GONE) {
+        long[] compactedIds = compactGoneEpisodes(db);
+        if (compactedIds.length > 0) {
+          // compacted episodes could still have images
+          long[] processedIds = episodeIds;
+          episodeIds = Arrays.copyOf(processedIds, processedIds.length + compactedIds.length);
+          System.arraycopy(
+              compactedIds, 0, episodeIds, processedIds.length, compactedIds.length);
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    if (episodeIds.length > 0) {
+      Set<Integer> states = new HashSet<>(2);
+      states.add(state);
+      states.add(ESTATE_GONE);
+      notifyEpisodesChange(episodeUri, states);
+    }
+    Bundle result = new Bundle(2);
+    result.putLongArray(EXTRA_EPISODE_IDS, episodeIds);
+    result.putLongArray(EXTRA_DOWNLOAD_IDS, downloadIds);
+    return result;
+  }
+
+  /**
+   * Moves GONE episodes without media to {@link #T_TOMBSTONE}, except the latest
+   * {@link #GONE_HISTORY_SIZE} of each feed, which are kept for feed history. Tombstone keeps only
+   * what sync needs to not re-add dismissed episode, so that episode table doesn't grow with every
+   * episode ever seen. Also deletes tombstones absent in feed and rebuilds Bloom filters
+   * ({@link #K_PTFILTER}) of feeds whose tombstones changed. Should be called in transaction.
+   * @return IDs of compacted episodes
+   */
+  @NonNull
+  private static long[] compactGoneEpisodes(@NonNull SQLiteDatabase db) {
+    Set<Long> changedFeeds = new HashSet<>();
+    String podcastTimestamp = "(SELECT " + K_PTSTAMP + " FROM " + T_PODCAST + " WHERE " + K_PID +
+        " == " + T_TOMBSTONE + '.' + K_TPID + ')';
+    String absent = podcastTimestamp + " IS NULL OR " + K_TTSTAMP + " < " + podcastTimestamp;
+    Cursor cursor = db.query(
+        true, T_TOMBSTONE, new String[]{K_TPID}, absent, null, null, null, null, null);
+    try {
+      while (cursor.moveToNext()) {
+        changedFeeds.add(cursor.getLong(0));
+      }
+    } finally {
+      cursor.close();
+    }
+    int deleted = changedFeeds.isEmpty() ? 0 : db.delete(T_TOMBSTONE, absent, null);
+
+    String gone = K_ESTATE + " == " + ESTATE_GONE;
+    List<Long> overfullFeeds = new ArrayList<>();
+    cursor = db.query(T_EPISODE, new String[]{K_EPID}, gone, null, K_EPID,
+                      "count(*) > " + GONE_HISTORY_SIZE, null);
+    try {
+      while (cursor.moveToNext()) {
+        overfullFeeds.add(cursor.getLong(0));
+      }
+    } finally {
+      cursor.close();
+    }
+    List<Long> compacted = new ArrayList<>();
+    for (long feedId : overfullFeeds) {
+      String where = K_EDFIN + " == 0 AND " + K_EDID + " == 0 AND " + K_ID + " IN (SELECT " +
+          K_ID + " FROM " + T_EPISODE + " WHERE " + K_EPID + " == " + feedId + " AND " + gone +
+          " ORDER BY " + K_EDATE + " DESC LIMIT -1 OFFSET " + GONE_HISTORY_SIZE + ')';
+      cursor = db.query(T_EPISODE, new String[]{K_ID}, where, null, null, null, null);
+      try {
+        while (cursor.moveToNext()) {
+          compacted.add(cursor.getLong(0));
+        }
+      } finally {
+        cursor.close();
+      }
+      db.execSQL("INSERT OR REPLACE INTO " + T_TOMBSTONE + " (" + K_ID + ", " + K_TPID + ", " +
+                     K_TTSTAMP + ") SELECT " + K_ID + ", " + K_EPID + ", " + K_ETSTAMP + " FROM " +
+                     T_EPISODE + " WHERE " + where);
+      db.delete(T_EPISODE, where, null);
+      changedFeeds.add(feedId);
+    }
+
+    for (long feedId : changedFeeds) {
+      updateTombstoneFilter(db, feedId);
+    }
+    if (deleted > 0 || !compacted.isEmpty()) {
+      Log.i(TAG, "Tombstones: " + compacted.size() + " episodes compacted, " + deleted +
+          " tombstones deleted");
+    }
+    long[] result = new long[compacted.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = compacted.get(i);
+    }
+    return result;
+  }
+
+  private static void updateTombstoneFilter(@NonNull SQLiteDatabase db, long feedId) {
+    ContentValues values = new ContentValues(1);
+    Cursor cursor = db.query(
+        T_TOMBSTONE, new String[]{K_ID}, K_TPID + " == " + feedId, null, null, null, null);
+    try {
+      if (cursor.getCount() == 0) {
+        values.putNull(K_PTFILTER);
+      } else {
+        LongBloomFilter filter = new LongBloomFilter(cursor.getCount());
+        while (cursor.moveToNext()) {
+          filter.add(cursor.getLong(0));
+        }
+        values.put(K_PTFILTER, filter.toBytes());
+      }
+    } finally {
+      cursor.close();
+    }
+    // filter isn't displayed, no need to notify
+    db.update(T_PODCAST, values, K_ID + " == " + feedId, null);
+  }
+
   @Override
   public boolean onCreate() {
     helper = new HelperV1(getContext(), authorityBase);
     resolver = getContext().getContentResolver();
+    handler = new Handler(Looper.getMainLooper());
     for (int i = 0; i < TABLES.length; i++) {
       matcher.addURI(authorityBase, TABLES[i], i);
       matcher.addURI(authorityBase, TABLES[i] + "/#", TABLES.length + i);
+      matcher.addURI(authorityBase, TABLES[i] + '/' + STATE_PATH + "/#", 2 * TABLES.length + i);
     }
     return true;
   }
@@ -232,7 +739,17 @@ public class Provider extends ContentProvider {
       Log.e(TAG, "Wrong query uri " + uri + ". Code " + code);
       return null;
     }
-    if (code >= TABLES.length) {
+    Uri notificationUri = uri;
+    if (code >= 2 * TABLES.length) {
+      code -= 2 * TABLES.length;
+      if (!TABLES[code].equals(T_EPISODE) && !TABLES[code].equals(T_E_JOIN_P)) {
+        Log.e(TAG, "Only episodes could be queried by state " + uri);
+        return null;
+      }
+      int state = Integer.parseInt(uri.getLastPathSegment());
+      selection = (selection == null ? "" : '(' + selection + ") AND ") + K_ESTATE + " == " + state;
+      notificationUri = getStateNotificationUri(state);
+    } else if (code >= TABLES.length) {
       code -= TABLES.length;
       StringBuilder builder = new StringBuilder();
       if (selection != null) {
@@ -245,6 +762,10 @@ public class Provider extends ContentProvider {
     }
     SQLiteDatabase db = helper.getReadableDatabase();
     if (code == TABLES.length - 1) {
+      if (notificationUri == uri) {
+        // join isn't limited by state, so it's affected by changes in any partition
+        notificationUri = stateRootUri;
+      }
       // Using left join here to include episodes from deleted subscriptions
       String raw = "SELECT " + (projection == null ? "*" : joinStrings(projection, ", ")) +
           " FROM " + T_EPISODE + " LEFT JOIN " + T_PODCAST +
@@ -256,11 +777,11 @@ public class Provider extends ContentProvider {
         raw += " ORDER BY " + sortOrder;
       }
       Cursor result = db.rawQuery(raw, selectionArgs);
-      result.setNotificationUri(resolver, baseUri);
+      result.setNotificationUri(resolver, notificationUri);
       return result;
     }
     Cursor result = db.query(TABLES[code], projection, selection, selectionArgs, null, null, sortOrder);
-    result.setNotificationUri(resolver, uri);
+    result.setNotificationUri(resolver, notificationUri);
     return result;
   }
 
@@ -269,8 +790,8 @@ public class Provider extends ContentProvider {
   public int update(Uri uri, ContentValues values, String selection,
                     String[] selectionArgs) {
     int code = matcher.match(uri);
-    if (code == -1) {
-      Log.e(TAG, "Wrong query uri " + uri + ". Code " + code);
+    if (code == -1 || code >= 2 * TABLES.length) {
+      Log.e(TAG, "Wrong update uri " + uri + ". Code " + code);
       return 0;
     }
     if (code >= TABLES.length) {
@@ -282,18 +803,93 @@ public class Provider extends ContentProvider {
       return 0;
     }
     SQLiteDatabase db = helper.getWritableDatabase();
+    // podcast timestamp is shown in podcast list, so it isn't here
+    boolean timestampUpdate = values.size() == 1 &&
+        (values.containsKey(K_ETSTAMP) || values.containsKey(K_TTSTAMP));
+    if (timestampUpdate) {
+      // these timestamps aren't displayed, nobody needs to be notified
+      return db.update(TABLES[code], values, selection, selectionArgs);
+    }
+    if (TABLES[code].equals(T_EPISODE)) {
+      return updateEpisodes(db, uri, values, selection, selectionArgs);
+    }
     int result = db.update(TABLES[code], values, selection, selectionArgs);
-    boolean timestampUpdate = values.size() == 1 && (
-        values.containsKey(K_ETSTAMP) || values.containsKey(K_PTSTAMP));
-    if (result > 0 && !timestampUpdate) {
-      resolver.notifyChange(uri, null);
+    if (result > 0) {
+      notifyChange(code, uri);
+      if (TABLES[code].equals(T_PODCAST)) {
+        for (String column : JOINED_PODCAST_COLUMNS) {
+          if (values.containsKey(column)) {
+            notifyUri(stateRootUri);
+            break;
+          }
+        }
+      }
     }
     return result;
   }
 
-  private static class HelperV1 extends SQLiteOpenHelper {
+  private int updateEpisodes(@NonNull SQLiteDatabase db, @NonNull Uri uri,
+                             @NonNull ContentValues values, @Nullable String selection,
+                             @Nullable String[] selectionArgs) {
+    Set<Integer> states;
+    int result;
+    db.beginTransactionNonExclusive();
+    try {
+      states = queryEpisodeStates(db, selection, selectionArgs);
+      result = db.update(T_EPISODE, values, selection, selectionArgs);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    if (result == 0) {
+      return 0;
+    }
+    addState(states, values);
+    // player stores playback progress twice a second, don't requery episode lists that often
+    boolean progressUpdate = true;
+    for (String column : values.keySet()) {
+      progressUpdate &= column.equals(K_EPLAYED) || column.equals(K_ELENGTH);
+    }
+    if (progressUpdate) {
+      notifyProgressChange(uri, states);
+    } else {
+      notifyEpisodesChange(uri, states);
+    }
+    return result;
+  }
+
+  static class HelperV1 extends SQLiteOpenHelper {
+    /** Increment it together with adding corresponding step to {@link #migrate} */
+    static final int VERSION = 8;
+    /**
+     * Log size [pages] that triggers automatic checkpoint on commit. It's bigger than Android
+     * default, so that sync writes aren't stalled by frequent checkpoints. Instead, log is
+     * checkpointed explicitly after sync with {@link #METHOD_CHECKPOINT}
+     */
+    private static final int WAL_AUTOCHECKPOINT = 1000;
+
     HelperV1(Context context, String name) {
-      super(context, name, null, 1);
+      super(context, name, null, VERSION);
+    }
+
+    /**
+     * Enables write-ahead logging. With it, queries run outside of transactions use a pool of
+     * read connections, so that UI loaders don't wait for sync writer commits
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+      db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+      // pragma returns new value, so it can't be run with execSQL
+      Cursor cursor = db.rawQuery("PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT, null);
+      try {
+        cursor.moveToFirst();
+      } finally {
+        cursor.close();
+      }
     }
 
     @Override
@@ -309,6 +905,12 @@ public class Provider extends ContentProvider {
           K_PURL + " TEXT," +
           K_PFURL + " TEXT," +
           K_PERROR + " TEXT," +
+          K_PETAG + " TEXT," +
+          K_PLMODIFIED + " TEXT," +
+          K_PFTSTAMP + " INTEGER," +
+          K_PHASH + " TEXT," +
+          K_PNEXT + " INTEGER," +
+          K_PTFILTER + " BLOB," +
           K_PTSTAMP + " INTEGER" +
           ')');
       db.execSQL("CREATE TABLE " + T_EPISODE + " (" +
@@ -332,11 +934,86 @@ public class Provider extends ContentProvider {
           K_EPID + " INTEGER," +
           "FOREIGN KEY(" + K_EPID + ") REFERENCES " + T_PODCAST + '(' + K_ID + ')' +
           ')');
+      createSyncTable(db);
+      createEpisodeIndexes(db);
+      createTombstoneTable(db);
+    }
+
+    private static void createSyncTable(SQLiteDatabase db) {
+      db.execSQL("CREATE TABLE " + T_SYNC + " (" +
+          K_ID + " INTEGER PRIMARY KEY," +
+          K_SSTART + " INTEGER," +
+          K_SRESULT + " INTEGER," +
+          K_SNEW + " INTEGER" +
+          ')');
+    }
+
+    private static void createTombstoneTable(SQLiteDatabase db) {
+      db.execSQL("CREATE TABLE " + T_TOMBSTONE + " (" +
+          K_ID + " INTEGER PRIMARY KEY," +
+          K_TPID + " INTEGER," +
+          K_TTSTAMP + " INTEGER" +
+          ')');
+      db.execSQL("CREATE INDEX tombstone_podcast_idx ON " + T_TOMBSTONE + " (" + K_TPID + ')');
+    }
+
+    /**
+     * Indexes for hot access paths: episode lists filter by state and sort by date, length or feed,
+     * feed history and sync select episodes of a feed, download handling looks episodes up by
+     * download ID
+     */
+    private static void createEpisodeIndexes(SQLiteDatabase db) {
+      db.execSQL("CREATE INDEX IF NOT EXISTS episode_state_date_idx ON " + T_EPISODE +
+                     " (" + K_ESTATE + ", " + K_EDATE + ')');
+      db.execSQL("CREATE INDEX IF NOT EXISTS episode_state_length_idx ON " + T_EPISODE +
+                     " (" + K_ESTATE + ", " + K_ELENGTH + ')');
+      db.execSQL("CREATE INDEX IF NOT EXISTS episode_podcast_date_idx ON " + T_EPISODE +
+                     " (" + K_EPID + ", " + K_EDATE + ')');
+      db.execSQL("CREATE INDEX IF NOT EXISTS episode_download_idx ON " + T_EPISODE +
+                     " (" + K_EDID + ')');
     }
 
+    /**
+     * Steps are applied one by one in the transaction of {@link #onUpgrade}, so DB either reaches
+     * new version or stays intact
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-      throw new UnsupportedOperationException("Not yet implemented");
+      for (int version = oldVersion + 1; version <= newVersion; version++) {
+        Log.i(TAG, "Upgrading DB to version " + version);
+        migrate(db, version);
+      }
+    }
+
+    /** Upgrades DB from version - 1 to given version */
+    private static void migrate(SQLiteDatabase db, int version) {
+      switch (version) {
+        case 2:
+          db.execSQL("ALTER TABLE " + T_PODCAST + " ADD COLUMN " + K_PETAG + " TEXT");
+          db.execSQL("ALTER TABLE " + T_PODCAST + " ADD COLUMN " + K_PLMODIFIED + " TEXT");
+          break;
+        case 3:
+          db.execSQL("ALTER TABLE " + T_PODCAST + " ADD COLUMN " + K_PFTSTAMP + " INTEGER");
+          break;
+        case 4:
+          db.execSQL("ALTER TABLE " + T_PODCAST + " ADD COLUMN " + K_PHASH + " TEXT");
+          break;
+        case 5:
+          db.execSQL("ALTER TABLE " + T_PODCAST + " ADD COLUMN " + K_PNEXT + " INTEGER");
+          break;
+        case 6:
+          createSyncTable(db);
+          break;
+        case 7:
+          createEpisodeIndexes(db);
+          break;
+        case 8:
+          db.execSQL("ALTER TABLE " + T_PODCAST + " ADD COLUMN " + K_PTFILTER + " BLOB");
+          createTombstoneTable(db);
+          break;
+        default:
+          throw new IllegalStateException("No migration to DB version " + version);
+      }
     }
   }
 
@@ -0,0 +1,97 @@
+package com.einmalfel.podlisten;
+
+import android.content.ContentProviderClient;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Decides when feed should be refreshed next time, based on publication dates of its episodes.
+ * <p/>
+ * Typical interval between releases is estimated as a median of recent intervals, which is robust
+ * to occasional bonus episodes and hiatuses. Feed isn't refreshed by automatic sync until shortly
+ * before its next expected release. If expected release is overdue, feed is considered going
+ * dormant and is refreshed less and less often, but at least every {@link #MAX_DELAY} ms.
+ * Feeds with irregular or too short history, and feeds publishing more often than sync runs, are
+ * refreshed on every sync.
+ */
+class RefreshPlanner {
+  private static final String TAG = "RPL";
+  /** Number of latest releases used to estimate interval between releases */
+  private static final int HISTORY_SIZE = 16;
+  /** Minimum number of intervals between releases needed for prediction */
+  private static final int MIN_INTERVALS = 3;
+  /** Episodes published within this time are considered a single release [ms] */
+  private static final long SAME_RELEASE_INTERVAL = 60 * 60 * 1000;
+  /** Feed is refreshed at least this often regardless of prediction [ms] */
+  private static final long MAX_DELAY = 14 * 24 * 60 * 60 * 1000L;
+
+  private RefreshPlanner() {}
+
+  /**
+   * @param now           current time [ms]
+   * @param syncPeriodMs  period of automatic sync [ms]
+   * @return time before which automatic sync should skip the feed [ms], 0 to refresh it always
+   */
+  static long getNextRefresh(@NonNull ContentProviderClient provider, long feedId, long now,
+                             long syncPeriodMs) throws RemoteException {
+    Cursor cursor = provider.query(
+        Provider.episodeUri,
+        new String[]{Provider.K_EDATE},
+        Provider.K_EPID + " == " + feedId,
+        null,
+        Provider.K_EDATE + " DESC LIMIT " + HISTORY_SIZE);
+    if (cursor == null) {
+      throw new RemoteException("Failed to query publication dates of feed " + feedId);
+    }
+    long[] dates = new long[cursor.getCount()];
+    try {
+      int dateColumn = cursor.getColumnIndexOrThrow(Provider.K_EDATE);
+      for (int i = 0; cursor.moveToNext(); i++) {
+        dates[i] = cursor.getLong(dateColumn);
+      }
+    } finally {
+      cursor.close();
+    }
+    long result = getNextRefresh(dates, now, syncPeriodMs);
+    if (result > now) {
+      Log.i(TAG, "Feed " + feedId + " refresh is postponed by " + (result - now) / 1000 + "s");
+    }
+    return result;
+  }
+
+  /** @param dates publication dates sorted newest first */
+  static long getNextRefresh(@NonNull long[] dates, long now, long syncPeriodMs) {
+    long[] intervals = new long[dates.length];
+    int count = 0;
+    long release = dates.length == 0 ? 0 : dates[0];
+    for (int i = 1; i < dates.length; i++) {
+      if (release - dates[i] >= SAME_RELEASE_INTERVAL) {
+        intervals[count++] = release - dates[i];
+        release = dates[i];
+      }
+    }
+    if (count < MIN_INTERVALS) {
+      return 0;
+    }
+    Arrays.sort(intervals, 0, count);
+    long typical = intervals[count / 2];
+    if (typical <= 2 * syncPeriodMs) {
+      return 0;
+    }
+
+    long expected = dates[0] + typical;
+    long next;
+    if (now < expected) {
+      // releases are rarely punctual, start checking a bit earlier
+      next = expected - Math.max(typical / 4, syncPeriodMs);
+    } else {
+      // release is overdue: the longer feed stays silent, the less often it's checked
+      next = now + (now - expected) / 2;
+    }
+    return Math.min(next, now + MAX_DELAY);
+  }
+}
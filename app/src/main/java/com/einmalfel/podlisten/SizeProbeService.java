@@ -0,0 +1,154 @@
+package com.einmalfel.podlisten;
+
+import android.app.IntentService;
+import android.content.ContentProviderOperation;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.Process;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fills in sizes of episodes whose feeds specified no or bogus audio length, using HEAD requests.
+ * Probing takes long on slow hosts, so it has its own service, and doesn't delay cleanups and
+ * download handling of {@link BackgroundOperations}.
+ */
+public class SizeProbeService extends IntentService {
+  private static final String TAG = "SPS";
+
+  /** Episode sizes less than this are considered bogus and get probed [bytes] */
+  private static final int MIN_EPISODE_SIZE = 10 * 1024;
+  /** Value of K_ESIZE for episodes whose size probing failed. It isn't retried */
+  private static final long SIZE_PROBE_FAILED = -1;
+  private static final int PROBE_THREADS = 4;
+  private static final int PROBE_TIMEOUT = 10 * 60; // [s]
+
+  /**
+   * Set if probing is queued, but not started yet. Requests come from sync process, so duplicates
+   * are detected here, in the service process
+   */
+  private final AtomicBoolean pending = new AtomicBoolean(false);
+
+  /**
+   * Low priority, intended to be run after sync. Request is dropped if probing is already queued
+   * and not started yet, as it will probe the same episodes
+   */
+  public static void probeEpisodeSizes(@NonNull Context context) {
+    context.startService(new Intent(context, SizeProbeService.class));
+  }
+
+  public SizeProbeService() {
+    super("SizeProbeService");
+  }
+
+  @Override
+  public int onStartCommand(Intent intent, int flags, int startId) {
+    if (pending.getAndSet(true)) {
+      Log.d(TAG, "Size probing is already pending");
+      // still queued as empty intent, so that service stops itself after the last one
+      intent = null;
+    }
+    return super.onStartCommand(intent, flags, startId);
+  }
+
+  @Override
+  protected void onHandleIntent(Intent intent) {
+    if (intent == null) {
+      return;
+    }
+    // episodes added from now on need another probing
+    pending.set(false);
+    probeEpisodeSizes();
+  }
+
+  private void probeEpisodeSizes() {
+    // don't override sizes received from DownloadManager meanwhile
+    final String unknownSize = Provider.K_ESIZE + " IS NULL OR (" + Provider.K_ESIZE +
+        " >= 0 AND " + Provider.K_ESIZE + " < " + MIN_EPISODE_SIZE + ")";
+    Cursor cursor = getContentResolver().query(
+        Provider.episodeUri,
+        new String[]{Provider.K_ID, Provider.K_EAURL},
+        // sizes of dismissed episodes aren't shown and won't be needed for download
+        "(" + unknownSize + ") AND " + Provider.K_EDFIN + " != " + Provider.EDFIN_COMPLETE +
+            " AND " + Provider.K_ESTATE + " != " + Provider.ESTATE_GONE,
+        null,
+        null);
+    if (cursor == null) {
+      Log.wtf(TAG, "Provider query returned null");
+      return;
+    }
+    Log.i(TAG, "Probing sizes of " + cursor.getCount() + " episodes");
+    final ArrayList<ContentProviderOperation> operations = new ArrayList<>(cursor.getCount());
+    ExecutorService executorService = Executors.newFixedThreadPool(PROBE_THREADS);
+    while (cursor.moveToNext()) {
+      final long id = cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_ID));
+      final String audioUrl = cursor.getString(cursor.getColumnIndexOrThrow(Provider.K_EAURL));
+      executorService.execute(new Runnable() {
+        @Override
+        public void run() {
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          long size = probeSize(audioUrl);
+          synchronized (operations) {
+            operations.add(ContentProviderOperation
+                               .newUpdate(Provider.episodeUri)
+                               .withSelection(
+                                   Provider.K_ID + " == " + id + " AND (" + unknownSize + ")", null)
+                               .withValue(Provider.K_ESIZE, size)
+                               .build());
+          }
+        }
+      });
+    }
+    cursor.close();
+    executorService.shutdown();
+    try {
+      if (!executorService.awaitTermination(PROBE_TIMEOUT, TimeUnit.SECONDS)) {
+        Log.w(TAG, "Size probing timed out, storing results received so far");
+        executorService.shutdownNow();
+      }
+    } catch (InterruptedException ignored) {
+      executorService.shutdownNow();
+    }
+    synchronized (operations) {
+      if (operations.isEmpty()) {
+        return;
+      }
+      try {
+        getContentResolver().applyBatch(Provider.authorityBase, operations);
+      } catch (RemoteException | OperationApplicationException exception) {
+        Log.e(TAG, "Failed to store episode sizes", exception);
+      }
+    }
+  }
+
+  private long probeSize(@NonNull String audioUrl) {
+    try {
+      HttpClient.Response response = HttpClient.execute(
+          new HttpClient.Request(new URL(audioUrl)).head());
+      try {
+        int size = response.getContentLength();
+        if (response.code == HttpURLConnection.HTTP_OK && size >= 0) {
+          return size;
+        }
+        Log.w(TAG, "No size in response to HEAD " + audioUrl + ". Code " + response.code);
+      } finally {
+        response.close();
+      }
+    } catch (IOException exception) {
+      Log.w(TAG, "Failed to probe size of " + audioUrl, exception);
+    }
+    return SIZE_PROBE_FAILED;
+  }
+}
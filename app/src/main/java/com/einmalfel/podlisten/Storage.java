@@ -127,7 +127,7 @@ public class Storage {
   }
 
   public void createSubdirs() throws IOException {
-    for (File dir : new File[] {getImagesDir(), getPodcastDir()}) {
+    for (File dir : new File[] {getImagesDir(), getPodcastDir(), getFeedsDir()}) {
       if (!dir.exists() && !dir.mkdirs()) {
         throw new IOException("Failed to create " + dir);
       }
@@ -137,13 +137,14 @@ public class Storage {
   public void cleanup() {
     File[] podcasts = getPodcastDir().listFiles();
     File[] images = getPodcastDir().listFiles();
+    File[] feeds = getFeedsDir().listFiles();
     File[] dirs = appFilesDir.listFiles();
     File appDir = appFilesDir.getParentFile();
     // if there no other data in */Android/data, try to rm it too
     File dataDir = appDir.getParentFile();
     File androidDir = dataDir.getParentFile();
 
-    for (File[] fileArray : new File[][]{podcasts, images, dirs,
+    for (File[] fileArray : new File[][]{podcasts, images, feeds, dirs,
                                          new File[]{appFilesDir, appDir, dataDir, androidDir}}) {
       if (fileArray != null) {
         for (File file : fileArray) {
@@ -165,6 +166,12 @@ public class Storage {
     return new File(appFilesDir, Environment.DIRECTORY_PICTURES);
   }
 
+  /** @return directory of {@link FeedCache} */
+  @NonNull
+  public File getFeedsDir() {
+    return new File(appFilesDir, "Feeds");
+  }
+
   /**
    * Checks whether given file belongs to this storage
    * @throws IOException if File path couldn't be converted to canonical form
@@ -50,6 +50,7 @@ public class SubscriptionsFragment extends DebuggableFragment implements
       @Override
       public void onClick(DialogInterface dialog, int id) {
         ImageManager.getInstance().deleteImage(pId);
+        FeedCache.delete(pId);
         activity.getContentResolver().delete(Provider.getUri(Provider.T_PODCAST, pId), null, null);
         BackgroundOperations.cleanupEpisodes(getContext(), Provider.ESTATE_GONE);
       }
@@ -69,8 +70,10 @@ public class SubscriptionsFragment extends DebuggableFragment implements
     historyFragment.show(getActivity().getSupportFragmentManager(), "history");
   }
 
+  // full description is loaded by DescriptionLoader when card gets expanded
   static final String[] projection = new String[]{
-      Provider.K_ID, Provider.K_PNAME, Provider.K_PDESCR, Provider.K_PFURL, Provider.K_PSTATE,
+      Provider.K_ID, Provider.K_PNAME, DescriptionLoader.lengthColumn(Provider.K_PDESCR),
+      Provider.K_PFURL, Provider.K_PSTATE,
       Provider.K_PURL, Provider.K_PTSTAMP, Provider.K_PERROR, Provider.K_PSDESCR};
   @Override
   public Loader<Cursor> onCreateLoader(int id, Bundle args) {
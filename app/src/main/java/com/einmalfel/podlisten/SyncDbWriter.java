@@ -0,0 +1,113 @@
+package com.einmalfel.podlisten;
+
+import android.os.Process;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes DB writes of sync workers on a single dedicated thread.
+ * <p/>
+ * Feeds are downloaded and parsed in parallel, while episode writes are serialized here, so they
+ * don't contend for SQLite write lock and slow commit doesn't stall feed downloads. Queue is
+ * bounded: if writer lags behind, submitting parsers block until there is room in the queue.
+ */
+class SyncDbWriter {
+  private static final String TAG = "SDW";
+  private static final int QUEUE_CAPACITY = 8;
+  /** Submitting thread re-checks if writer is still running with this period [ms] */
+  private static final long OFFER_TIMEOUT = 500;
+  private static final FutureTask<Void> STOP = new FutureTask<>(new Callable<Void>() {
+    @Override
+    public Void call() {
+      return null;
+    }
+  });
+
+  private final BlockingQueue<FutureTask<?>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private volatile boolean stopped = false;
+  private final Thread thread = new Thread(new Runnable() {
+    @Override
+    public void run() {
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+      try {
+        for (FutureTask<?> job = queue.take(); job != STOP; job = queue.take()) {
+          // failures are stored in job's future and reported to submitting worker
+          job.run();
+        }
+      } catch (InterruptedException ignored) {
+        Log.w(TAG, "Writer interrupted, " + queue.size() + " jobs discarded");
+      } finally {
+        stopped = true;
+        for (FutureTask<?> job = queue.poll(); job != null; job = queue.poll()) {
+          job.cancel(false);
+        }
+      }
+    }
+  }, "SyncDbWriter");
+
+  SyncDbWriter() {
+    thread.start();
+  }
+
+  /**
+   * Queues write job, blocking while the queue is full. If writer is stopped, job is cancelled
+   *
+   * @return future of job result. Use {@link #getResult(Future)} to wait for it
+   */
+  @NonNull
+  <T> Future<T> submit(@NonNull Callable<T> job) throws InterruptedException {
+    FutureTask<T> task = new FutureTask<>(job);
+    while (!stopped) {
+      if (queue.offer(task, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+        if (stopped) {
+          // writer thread could exit after its final queue cleanup and never take this job
+          task.cancel(false);
+        }
+        return task;
+      }
+    }
+    task.cancel(false);
+    return task;
+  }
+
+  /**
+   * Waits for completion of a job submitted earlier
+   *
+   * @throws RemoteException if job failed
+   */
+  static <T> T getResult(@NonNull Future<T> future) throws RemoteException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException exception) {
+      Throwable cause = exception.getCause();
+      if (cause instanceof RemoteException) {
+        throw (RemoteException) cause;
+      }
+      Log.e(TAG, "DB write failed", cause);
+      throw new RemoteException("DB write failed: " + cause);
+    } catch (CancellationException exception) {
+      throw new RemoteException("DB writer stopped before job execution");
+    }
+  }
+
+  /** Executes jobs queued so far and stops writer thread */
+  void shutdown() throws InterruptedException {
+    queue.put(STOP);
+    thread.join();
+  }
+
+  /** Stops writer thread without executing queued jobs */
+  void shutdownNow() {
+    thread.interrupt();
+  }
+}
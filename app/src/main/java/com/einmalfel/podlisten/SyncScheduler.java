@@ -0,0 +1,266 @@
+package com.einmalfel.podlisten;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.support.annotation.NonNull;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs feed refresh tasks in parallel.
+ * <p/>
+ * Parallelism limit depends on network type: it starts at a base value and grows up to a maximum
+ * when feeds take long to refresh, as in that case workers mostly wait for server responses.
+ * Number of simultaneous requests to the same host is capped to avoid server-side throttling, so
+ * feeds of a big host don't occupy all workers.
+ * <p/>
+ * Tasks are started in submission order, except hosts at their limit are skipped and tasks
+ * passed to {@link #prioritize(long)} are started before others.
+ */
+class SyncScheduler {
+  private static final String TAG = "SSC";
+  private static final int MAX_TASKS_PER_HOST = 2;
+  /** Refreshes longer than this are considered latency-bound and allow more parallel tasks */
+  private static final long REFERENCE_DURATION_MS = 2000;
+  /** Weight of the last refresh duration in moving average */
+  private static final double DURATION_WEIGHT = 0.2;
+
+  private final ExecutorService executorService = Executors.newCachedThreadPool();
+  private final Map<String, PriorityQueue<Task>> pendingTasks = new HashMap<>();
+  private final Map<String, Integer> runningTasks = new HashMap<>();
+  private final int baseParallelism;
+  private final int maxParallelism;
+  private int parallelism;
+  private int running = 0;
+  private double averageDurationMs = 0;
+  private boolean shutdown = false;
+  private long nextOrder = 0;
+  private long nextPriorityOrder = -1;
+
+  private static class Task implements Comparable<Task> {
+    final long id;
+    final String host;
+    final Runnable runnable;
+    long order;
+
+    Task(long id, @NonNull String host, @NonNull Runnable runnable, long order) {
+      this.id = id;
+      this.host = host;
+      this.runnable = runnable;
+      this.order = order;
+    }
+
+    @Override
+    public int compareTo(@NonNull Task another) {
+      return order < another.order ? -1 : (order == another.order ? 0 : 1);
+    }
+  }
+
+  /**
+   * @param baseParallelism number of tasks run in parallel while refreshes are fast
+   * @param maxParallelism  limit parallelism could grow to when refreshes are slow
+   */
+  SyncScheduler(int baseParallelism, int maxParallelism) {
+    this.baseParallelism = baseParallelism;
+    this.maxParallelism = maxParallelism;
+    parallelism = baseParallelism;
+  }
+
+  /** @return scheduler with parallelism suitable for active network */
+  @NonNull
+  static SyncScheduler forActiveNetwork(@NonNull Context context) {
+    ConnectivityManager cm = (ConnectivityManager) context.getSystemService(
+        Context.CONNECTIVITY_SERVICE);
+    NetworkInfo network = cm.getActiveNetworkInfo();
+    SyncScheduler result;
+    if (network == null) {
+      result = new SyncScheduler(2, 3);
+    } else if (network.getType() != ConnectivityManager.TYPE_MOBILE) {
+      result = new SyncScheduler(4, 10);
+    } else if (isSlowMobileNetwork(network.getSubtype())) {
+      result = new SyncScheduler(1, 2);
+    } else {
+      result = new SyncScheduler(3, 6);
+    }
+    Log.i(TAG, "Network " + (network == null ? null : network.getTypeName()) +
+        ", parallelism " + result.baseParallelism + ".." + result.maxParallelism);
+    return result;
+  }
+
+  private static boolean isSlowMobileNetwork(int subtype) {
+    switch (subtype) {
+      case TelephonyManager.NETWORK_TYPE_GPRS:
+      case TelephonyManager.NETWORK_TYPE_EDGE:
+      case TelephonyManager.NETWORK_TYPE_CDMA:
+      case TelephonyManager.NETWORK_TYPE_1xRTT:
+      case TelephonyManager.NETWORK_TYPE_IDEN:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  @NonNull
+  private static String getHost(@NonNull String link) {
+    try {
+      String host = new URL(link).getHost();
+      return host == null ? "" : host.toLowerCase();
+    } catch (MalformedURLException ignored) {
+      return "";
+    }
+  }
+
+  /**
+   * @param id   identifies task in {@link #prioritize(long)} calls
+   * @param link URL task is going to load
+   */
+  synchronized void submit(long id, @NonNull String link, @NonNull Runnable task) {
+    if (shutdown) {
+      throw new IllegalStateException("Scheduler is shut down");
+    }
+    String host = getHost(link);
+    PriorityQueue<Task> queue = pendingTasks.get(host);
+    if (queue == null) {
+      queue = new PriorityQueue<>();
+      pendingTasks.put(host, queue);
+    }
+    queue.add(new Task(id, host, task, nextOrder++));
+    dispatch();
+  }
+
+  /**
+   * Moves pending task ahead of all other tasks, submitted or prioritized earlier
+   *
+   * @return false if there is no pending task with such id: it's running or done or unknown
+   */
+  synchronized boolean prioritize(long id) {
+    for (PriorityQueue<Task> queue : pendingTasks.values()) {
+      for (Task task : queue) {
+        if (task.id == id) {
+          queue.remove(task);
+          task.order = nextPriorityOrder--;
+          queue.add(task);
+          dispatch();
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** No tasks will be accepted, pending ones will be executed */
+  synchronized void shutdown() {
+    shutdown = true;
+  }
+
+  /**
+   * Discards pending tasks and interrupts running ones
+   *
+   * @return discarded tasks, in the order they would have been started
+   */
+  @NonNull
+  synchronized List<Runnable> shutdownNow() {
+    shutdown = true;
+    List<Task> tasks = new ArrayList<>();
+    for (PriorityQueue<Task> queue : pendingTasks.values()) {
+      tasks.addAll(queue);
+    }
+    pendingTasks.clear();
+    executorService.shutdownNow();
+    Collections.sort(tasks);
+    List<Runnable> result = new ArrayList<>(tasks.size());
+    for (Task task : tasks) {
+      result.add(task.runnable);
+    }
+    return result;
+  }
+
+  /** @return true if all tasks finished, false on timeout */
+  synchronized boolean awaitTermination(long timeout, @NonNull TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+    while (running != 0 || !pendingTasks.isEmpty()) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      wait(remaining);
+    }
+    executorService.shutdown();
+    return true;
+  }
+
+  private synchronized void onTaskFinished(@NonNull String host, long durationMs) {
+    running--;
+    int hostRunning = runningTasks.get(host) - 1;
+    if (hostRunning == 0) {
+      runningTasks.remove(host);
+    } else {
+      runningTasks.put(host, hostRunning);
+    }
+    averageDurationMs = averageDurationMs == 0 ? durationMs :
+        averageDurationMs * (1 - DURATION_WEIGHT) + durationMs * DURATION_WEIGHT;
+    int newParallelism = (int) Math.round(
+        baseParallelism * Math.max(1.0, averageDurationMs / REFERENCE_DURATION_MS));
+    newParallelism = Math.min(newParallelism, maxParallelism);
+    if (newParallelism != parallelism) {
+      Log.d(TAG, "Average refresh time " + averageDurationMs + "ms, parallelism " + newParallelism);
+      parallelism = newParallelism;
+    }
+    dispatch();
+    notifyAll();
+  }
+
+  /** Starts pending tasks while there are free slots, earliest ordered first */
+  private void dispatch() {
+    while (running < parallelism && !executorService.isShutdown()) {
+      Task next = null;
+      for (Map.Entry<String, PriorityQueue<Task>> entry : pendingTasks.entrySet()) {
+        Integer hostRunning = runningTasks.get(entry.getKey());
+        if (hostRunning != null && hostRunning >= MAX_TASKS_PER_HOST) {
+          continue;
+        }
+        Task head = entry.getValue().peek();
+        if (next == null || head.order < next.order) {
+          next = head;
+        }
+      }
+      if (next == null) {
+        return;
+      }
+      final Task task = next;
+      PriorityQueue<Task> queue = pendingTasks.get(task.host);
+      queue.poll();
+      if (queue.isEmpty()) {
+        pendingTasks.remove(task.host);
+      }
+      Integer hostRunning = runningTasks.get(task.host);
+      runningTasks.put(task.host, hostRunning == null ? 1 : hostRunning + 1);
+      running++;
+      executorService.execute(new Runnable() {
+        @Override
+        public void run() {
+          long start = System.currentTimeMillis();
+          try {
+            task.runnable.run();
+          } finally {
+            onTaskFinished(task.host, System.currentTimeMillis() - start);
+          }
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,226 @@
+package com.einmalfel.podlisten;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.einmalfel.podlisten.support.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Persistent record of full sync progress, stored in {@link Provider#T_SYNC}.
+ * <p/>
+ * Each feed of the sync gets a row with its result. If sync is interrupted, rows are kept, and
+ * next full sync refreshes only feeds still pending, continuing progress of interrupted one.
+ * Session is removed once all of its feeds are processed.
+ * <p/>
+ * Results are recorded in memory and stored by {@link #save()} in batches, so that workers
+ * signalling results don't wait for DB.
+ */
+class SyncSession {
+  private static final String TAG = "SSN";
+  /** Sessions older than this are not resumed [ms] */
+  private static final long MAX_AGE = 24 * 60 * 60 * 1000;
+
+  private final ContentProviderClient provider;
+  private final LongHashSet pending;
+  private final long start;
+  private int succeeded = 0;
+  private int failed = 0;
+  private int newEpisodes = 0;
+  private boolean frozen = false;
+  /** Updates of results recorded since last {@link #save()} */
+  private ArrayList<ContentProviderOperation> unsaved = new ArrayList<>();
+
+  private SyncSession(@NonNull ContentProviderClient provider, long start, int size) {
+    this.provider = provider;
+    this.start = start;
+    pending = new LongHashSet(size);
+  }
+
+  /**
+   * @param feedIds feeds subscribed now. Pending feeds unsubscribed since session start are
+   *                removed from it, otherwise session would never reach its size. Feeds
+   *                subscribed since session start are added to it as pending
+   * @return unfinished session started not long ago, or null if there isn't one
+   */
+  @Nullable
+  static SyncSession resume(@NonNull ContentProviderClient provider, @NonNull long[] feedIds)
+      throws RemoteException {
+    Cursor cursor = provider.query(Provider.syncUri, null, null, null, null);
+    if (cursor == null) {
+      throw new RemoteException("Failed to query sync session");
+    }
+    SyncSession session;
+    LongHashSet subscribed = new LongHashSet(feedIds.length);
+    for (long id : feedIds) {
+      subscribed.add(id);
+    }
+    int dropped = 0;
+    List<ContentValues> added = new ArrayList<>();
+    try {
+      if (!cursor.moveToFirst()) {
+        return null;
+      }
+      long start = cursor.getLong(cursor.getColumnIndexOrThrow(Provider.K_SSTART));
+      if (new Date().getTime() - start > MAX_AGE) {
+        Log.i(TAG, "Discarding outdated sync session of " + new Date(start));
+        return null;
+      }
+      session = new SyncSession(provider, start, cursor.getCount());
+      int idColumn = cursor.getColumnIndexOrThrow(Provider.K_ID);
+      int resultColumn = cursor.getColumnIndexOrThrow(Provider.K_SRESULT);
+      int newColumn = cursor.getColumnIndexOrThrow(Provider.K_SNEW);
+      do {
+        long id = cursor.getLong(idColumn);
+        boolean stillSubscribed = subscribed.remove(id);
+        switch (cursor.getInt(resultColumn)) {
+          case Provider.SRESULT_PENDING:
+            if (stillSubscribed) {
+              session.pending.add(id);
+            } else {
+              provider.delete(Provider.getUri(Provider.T_SYNC, id), null, null);
+              dropped++;
+            }
+            break;
+          case Provider.SRESULT_SUCCESS:
+            session.succeeded++;
+            session.newEpisodes += cursor.getInt(newColumn);
+            break;
+          default:
+            session.failed++;
+        }
+      } while (cursor.moveToNext());
+    } finally {
+      cursor.close();
+    }
+    // what is left in subscribed wasn't there when session started, e.g. imported from OPML
+    for (long id : feedIds) {
+      if (subscribed.contains(id)) {
+        added.add(pendingRow(id, session.start));
+        session.pending.add(id);
+      }
+    }
+    if (!added.isEmpty() && provider.bulkInsert(
+        Provider.syncUri, added.toArray(new ContentValues[added.size()])) != added.size()) {
+      throw new RemoteException("Failed to add new feeds to sync session");
+    }
+    Log.i(TAG, "Resuming sync of " + new Date(session.start) + ", " + session.pending.size() +
+        " of " + session.size() + " feeds left, " + dropped + " unsubscribed feeds dropped, " +
+        added.size() + " new feeds added");
+    return session;
+  }
+
+  /** Replaces previous session, if any, with a new one, where all given feeds are pending */
+  @NonNull
+  static SyncSession create(@NonNull ContentProviderClient provider, @NonNull long[] feedIds)
+      throws RemoteException {
+    SyncSession session = new SyncSession(provider, new Date().getTime(), feedIds.length);
+    ContentValues[] rows = new ContentValues[feedIds.length];
+    for (int i = 0; i < feedIds.length; i++) {
+      rows[i] = pendingRow(feedIds[i], session.start);
+      session.pending.add(feedIds[i]);
+    }
+    provider.delete(Provider.syncUri, null, null);
+    if (provider.bulkInsert(Provider.syncUri, rows) != rows.length) {
+      throw new RemoteException("Failed to store sync session");
+    }
+    return session;
+  }
+
+  @NonNull
+  private static ContentValues pendingRow(long feedId, long start) {
+    ContentValues row = new ContentValues(4);
+    row.put(Provider.K_ID, feedId);
+    row.put(Provider.K_SSTART, start);
+    row.put(Provider.K_SRESULT, Provider.SRESULT_PENDING);
+    row.put(Provider.K_SNEW, 0);
+    return row;
+  }
+
+  synchronized boolean isPending(long feedId) {
+    return pending.contains(feedId);
+  }
+
+  /** @return total number of feeds in session */
+  synchronized int size() {
+    return pending.size() + succeeded + failed;
+  }
+
+  synchronized int getSucceeded() {
+    return succeeded;
+  }
+
+  synchronized int getFailed() {
+    return failed;
+  }
+
+  synchronized int getNewEpisodes() {
+    return newEpisodes;
+  }
+
+  /** Records result of feed refresh. It's stored to DB on next {@link #save()} */
+  synchronized void record(long feedId, boolean success, int episodesAdded) {
+    if (frozen || !pending.remove(feedId)) {
+      return;
+    }
+    if (success) {
+      succeeded++;
+      newEpisodes += episodesAdded;
+    } else {
+      failed++;
+    }
+    unsaved.add(ContentProviderOperation
+                    .newUpdate(Provider.getUri(Provider.T_SYNC, feedId))
+                    .withValue(Provider.K_SRESULT,
+                               success ? Provider.SRESULT_SUCCESS : Provider.SRESULT_FAILED)
+                    .withValue(Provider.K_SNEW, episodesAdded)
+                    .build());
+  }
+
+  /** Stores results recorded since previous call in a single transaction */
+  void save() {
+    ArrayList<ContentProviderOperation> operations;
+    synchronized (this) {
+      if (unsaved.isEmpty()) {
+        return;
+      }
+      operations = unsaved;
+      unsaved = new ArrayList<>();
+    }
+    try {
+      provider.applyBatch(operations);
+    } catch (RemoteException | OperationApplicationException exception) {
+      Log.e(TAG, "Failed to store " + operations.size() + " sync results", exception);
+    }
+  }
+
+  /**
+   * Stops recording results. Called when sync is being interrupted: feeds failing from now on are
+   * likely failing because of interruption, so they should be kept pending
+   */
+  synchronized void freeze() {
+    frozen = true;
+  }
+
+  /** Removes session from DB, so that next sync will start from scratch */
+  void finish() {
+    synchronized (this) {
+      unsaved.clear();
+    }
+    try {
+      provider.delete(Provider.syncUri, null, null);
+    } catch (RemoteException exception) {
+      Log.e(TAG, "Failed to remove finished sync session", exception);
+    }
+  }
+}
@@ -10,20 +10,45 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.NotificationManagerCompat;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * This class keeps records on sync errors and manages sync notification
+ * This class keeps records on sync errors and manages sync notification.
+ * <p/>
+ * Workers signal results concurrently, so counters are atomic and signals don't block. Progress
+ * notification is published by a ticker thread at most once per {@link #TICK_PERIOD_MS}, as each
+ * publication is an IPC call to system server and a redraw for SystemUI. Ticker also saves
+ * results recorded into sync session, in batches.
  */
 public class SyncState {
   private static final int NOTIFICATION_ID = 1;
+  private static final long TICK_PERIOD_MS = 250;
   private final SyncResult syncResult;
   private final NotificationManagerCompat nm;
   private final NotificationCompat.Builder nb;
   private final Context context;
+  private final AtomicInteger errors = new AtomicInteger();
+  private final AtomicInteger parsed = new AtomicInteger();
+  private final AtomicInteger newEpisodes = new AtomicInteger();
+  private final AtomicInteger timeouts = new AtomicInteger();
+  // SyncResult fields aren't thread-safe, so they are accumulated here and copied on stop
+  private final AtomicInteger skippedEntries = new AtomicInteger();
+  private final AtomicInteger ioExceptions = new AtomicInteger();
+  private final AtomicInteger updates = new AtomicInteger();
+  private final AtomicBoolean databaseError = new AtomicBoolean();
+  private final AtomicBoolean progressChanged = new AtomicBoolean();
+  private volatile String progressMessage;
   private int maxFeeds = 0;
-  private int errors = 0;
-  private int parsed = 0;
-  private int newEpisodes = 0;
+  // guarded by nb
   private boolean stopped = false;
+  @Nullable
+  private SyncSession session;
+  @Nullable
+  private ScheduledExecutorService ticker;
 
   SyncState(@NonNull Context context, @NonNull SyncResult syncResult) {
     this.syncResult = syncResult;
@@ -40,29 +65,71 @@ public class SyncState {
       .setContentIntent(pendingIntent);
   }
 
-  synchronized void start(int maxFeeds) {
+  /** Should be called before workers start */
+  void start(int maxFeeds) {
     this.maxFeeds = maxFeeds;
-    nb.setContentTitle(context.getString(R.string.sync_running))
-      .setOngoing(true)
-      .setAutoCancel(false)
-      .setProgress(0, 0, true);
-    updateNotification();
+    startProgress();
   }
 
-  synchronized void error(String message) {
-    nb.setOngoing(false)
-      .setAutoCancel(true)
-      .setProgress(0, 0, false)
-      .setContentTitle(context.getString(R.string.sync_failed))
-      .setContentText(message);
-    updateNotification();
-    stopped = true;
+  /**
+   * Starts progress from the point where session stopped and records results into it.
+   * Should be called before workers start
+   */
+  void start(@NonNull SyncSession session) {
+    this.session = session;
+    maxFeeds = session.size();
+    parsed.set(session.getSucceeded());
+    errors.set(session.getFailed());
+    newEpisodes.set(session.getNewEpisodes());
+    startProgress();
+  }
+
+  private void startProgress() {
+    synchronized (nb) {
+      nb.setContentTitle(context.getString(R.string.sync_running))
+        .setOngoing(true)
+        .setAutoCancel(false)
+        .setProgress(0, 0, true);
+      updateNotification();
+    }
+    ticker = Executors.newSingleThreadScheduledExecutor();
+    ticker.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        publishProgress();
+        saveSession();
+      }
+    }, TICK_PERIOD_MS, TICK_PERIOD_MS, TimeUnit.MILLISECONDS);
+  }
+
+  void error(String message) {
+    stopTicker();
+    synchronized (nb) {
+      nb.setOngoing(false)
+        .setAutoCancel(true)
+        .setProgress(0, 0, false)
+        .setContentTitle(context.getString(R.string.sync_failed))
+        .setContentText(message);
+      updateNotification();
+      stopped = true;
+    }
+    saveSession();
+    copyResult();
   }
 
-  synchronized void stop() {
+  void stop() {
+    stopTicker();
+    saveSession();
+    copyResult();
+    synchronized (nb) {
+      stopNotification();
+    }
+  }
+
+  private void stopNotification() {
     // don't keep "refreshed" notification user if main activity is on screen
     String currentActivity = Preferences.getInstance().getCurrentActivity(true);
-    if (MainActivity.class.getSimpleName().equals(currentActivity) && errors == 0) {
+    if (MainActivity.class.getSimpleName().equals(currentActivity) && errors.get() == 0) {
       stopped = true;
       nm.cancel(NOTIFICATION_ID);
       return;
@@ -82,6 +149,7 @@ public class SyncState {
       int count = cursor.getCount();
       cursor.close();
 
+      int newEpisodes = this.newEpisodes.get();
       String newEpisodesCount;
       if (count == newEpisodes) {
         newEpisodesCount = Integer.toString(newEpisodes);
@@ -93,13 +161,17 @@ public class SyncState {
       }
       stringBuilder.append(context.getString(R.string.sync_new_episodes, newEpisodesCount));
 
-      if (parsed > 0) {
+      if (parsed.get() > 0) {
+        stringBuilder.append(", ")
+                     .append(context.getString(R.string.sync_feeds_synced, parsed.get()));
+      }
+      if (errors.get() > 0) {
         stringBuilder.append(", ")
-                     .append(context.getString(R.string.sync_feeds_synced, parsed));
+                     .append(context.getString(R.string.sync_feeds_failed, errors.get()));
       }
-      if (errors > 0) {
+      if (timeouts.get() > 0) {
         stringBuilder.append(", ")
-                     .append(context.getString(R.string.sync_feeds_failed, errors));
+                     .append(context.getString(R.string.sync_feeds_timed_out, timeouts.get()));
       }
     }
     nb.setOngoing(false)
@@ -111,41 +183,98 @@ public class SyncState {
     stopped = true;
   }
 
-  synchronized private void updateProgress(String message) {
-    nb.setProgress(maxFeeds, errors + parsed, false);
-    nb.setContentText(message);
-    updateNotification();
+  /** Stops ticker, waiting for publication in progress, if any */
+  private void stopTicker() {
+    if (ticker != null) {
+      ticker.shutdownNow();
+      try {
+        ticker.awaitTermination(TICK_PERIOD_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ignored) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void saveSession() {
+    if (session != null) {
+      session.save();
+    }
+  }
+
+  private void copyResult() {
+    syncResult.stats.numSkippedEntries += skippedEntries.getAndSet(0);
+    syncResult.stats.numIoExceptions += ioExceptions.getAndSet(0);
+    syncResult.stats.numUpdates += updates.getAndSet(0);
+    if (databaseError.get()) {
+      syncResult.databaseError = true;
+    }
+  }
+
+  /** Called by ticker: publishes progress if something changed since last publication */
+  private void publishProgress() {
+    if (!progressChanged.getAndSet(false)) {
+      return;
+    }
+    synchronized (nb) {
+      nb.setProgress(maxFeeds, errors.get() + parsed.get(), false);
+      nb.setContentText(progressMessage);
+      updateNotification();
+    }
   }
 
+  private void updateProgress(String message) {
+    progressMessage = message;
+    progressChanged.set(true);
+  }
 
-  synchronized void signalParseError(String feedTitle) {
-    syncResult.stats.numSkippedEntries++;
-    errors++;
+  void signalParseError(long feedId, String feedTitle) {
+    skippedEntries.incrementAndGet();
+    errors.incrementAndGet();
+    record(feedId, false, 0);
     updateProgress(context.getString(R.string.sync_feed_parsing_failed, feedTitle));
   }
 
-  synchronized void signalDBError(String feedTitle) {
-    syncResult.databaseError = true;
-    errors++;
+  void signalDBError(long feedId, String feedTitle) {
+    databaseError.set(true);
+    errors.incrementAndGet();
+    record(feedId, false, 0);
     updateProgress(context.getString(R.string.sync_feed_db_error, feedTitle));
   }
 
-  synchronized void signalIOError(String feedTitle) {
-    syncResult.stats.numIoExceptions++;
-    errors++;
+  void signalIOError(long feedId, String feedTitle) {
+    ioExceptions.incrementAndGet();
+    errors.incrementAndGet();
+    record(feedId, false, 0);
     updateProgress(context.getString(R.string.sync_feed_io_error, feedTitle));
   }
 
-  synchronized void signalFeedSuccess(@Nullable String feedTitle, int episodesAdded) {
-    syncResult.stats.numUpdates++;
-    parsed++;
-    newEpisodes += episodesAdded;
+  /** Feed refresh exceeded its deadline or was cancelled */
+  void signalTimeout(long feedId, String feedTitle) {
+    ioExceptions.incrementAndGet();
+    errors.incrementAndGet();
+    timeouts.incrementAndGet();
+    record(feedId, false, 0);
+    updateProgress(context.getString(R.string.sync_feed_timed_out, feedTitle));
+  }
+
+  void signalFeedSuccess(long feedId, @Nullable String feedTitle, int episodesAdded) {
+    updates.incrementAndGet();
+    parsed.incrementAndGet();
+    newEpisodes.addAndGet(episodesAdded);
+    record(feedId, true, episodesAdded);
     if (feedTitle != null) {
       updateProgress(context.getString(R.string.sync_feed_synced, feedTitle));
     }
   }
 
-  synchronized private void updateNotification() {
+  private void record(long feedId, boolean success, int episodesAdded) {
+    if (session != null) {
+      session.record(feedId, success, episodesAdded);
+    }
+  }
+
+  // should be called with nb lock held
+  private void updateNotification() {
     if (!stopped) {
       nm.notify(NOTIFICATION_ID, nb.build());
     }
@@ -2,35 +2,47 @@ package com.einmalfel.podlisten;
 
 import android.content.ContentProviderClient;
 import android.content.ContentValues;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteConstraintException;
+import android.net.Uri;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.text.Html;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LongSparseArray;
 
-import com.einmalfel.earl.EarlParser;
-import com.einmalfel.earl.Enclosure;
-import com.einmalfel.earl.Feed;
-import com.einmalfel.earl.Item;
-import com.einmalfel.earl.RSSEnclosure;
+import com.einmalfel.podlisten.FeedParser.Enclosure;
+import com.einmalfel.podlisten.FeedParser.Item;
+import com.einmalfel.podlisten.support.LongBloomFilter;
+import com.einmalfel.podlisten.support.LongHashSet;
 
-import org.unbescape.xml.XmlEscape;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Scanner;
+import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
-import java.util.zip.DataFormatException;
 
 class SyncWorker implements Runnable {
   private static final String TAG = "SWK";
@@ -38,6 +50,35 @@ class SyncWorker implements Runnable {
    * Feed parsing stops after reading this number of feed items
    */
   private static final int MAX_EPISODES_TO_PARSE = 1000;
+  /**
+   * Incremental refresh stops parsing after this number of consecutive items already stored in DB
+   */
+  private static final int KNOWN_ITEMS_TO_STOP = 10;
+  /**
+   * Parsed items are written to DB in batches of this size
+   */
+  private static final int WRITE_BATCH_SIZE = 50;
+  /**
+   * Parsing waits for DB writer when this number of batches of the feed are not yet written
+   */
+  private static final int MAX_PENDING_BATCHES = 2;
+  /**
+   * Incremental refreshes skip old feed items, so full refresh is done at least this often [ms]
+   */
+  private static final long FULL_REFRESH_PERIOD = 7 * 24 * 60 * 60 * 1000;
+  /**
+   * Time limit for feed refresh, including connection, transfer, parsing and image loading [ms]
+   */
+  private static final long FEED_DEADLINE = 3 * 60 * 1000;
+  /**
+   * Feeds found on web-page are checked for audio episodes by parsing this many first bytes of them
+   */
+  private static final int SNIFF_SIZE = 64 * 1024;
+  /** Number of feeds found on web-page that are checked simultaneously */
+  private static final int MAX_PARALLEL_PROBES = 3;
+  /** Period of feed deadline checks while waiting for feeds found on web-page to be checked [ms] */
+  private static final long PROBE_POLL_PERIOD = 1000;
+  private static final String HASH_ALGORITHM = "SHA-1";
   private static final Pattern AUDIO_PATTERN = Pattern.compile("\\Aaudio/.*\\Z");
   private static final Date PODCAST_EPOCH;
 
@@ -48,101 +89,442 @@ class SyncWorker implements Runnable {
     PODCAST_EPOCH = calendar.getTime();
   }
 
+  /** Podcast table columns needed to schedule and construct a worker */
+  static final String[] FEED_COLUMNS = new String[]{
+      Provider.K_ID, Provider.K_PFURL, Provider.K_PSTATE, Provider.K_PTSTAMP, Provider.K_PRMODE,
+      Provider.K_PNAME, Provider.K_PETAG, Provider.K_PLMODIFIED, Provider.K_PFTSTAMP,
+      Provider.K_PHASH, Provider.K_PNEXT};
+
   private final SyncState syncState;
   private final ContentProviderClient provider;
+  private final SyncDbWriter dbWriter;
+  private final ExecutorService parseExecutor;
   private final Provider.RefreshMode refreshMode;
+  // feed title stored in DB, used in notification if feed is unchanged
+  private final String feedTitle;
+  // timestamp of last successful refresh of the feed
+  private final long lastRefresh;
+  // data of previous refresh, null if it can't be relied on
+  private final String eTag;
+  private final String lastModified;
+  private final String bodyHash;
+  // allow to stop parsing after a run of items that are already in DB
+  private final boolean incremental;
+  // parse feed copy from FeedCache instead of downloading it
+  private final boolean reparse;
+  // ID the feed had when scheduled. Differs from id if link turned out to be a web-page of a feed
+  private final long scheduledId;
   private long id;
   private String link;
+  // set while worker runs, cancelled by sync adapter to abort hung refresh
+  private volatile Deadline deadline;
 
-  public SyncWorker(long id, @NonNull String link, @NonNull ContentProviderClient provider,
-                    @NonNull SyncState syncState, Provider.RefreshMode refreshMode) {
-    this.id = id;
-    this.link = link;
+  /**
+   * @param feed          cursor positioned at podcast row, containing {@link #FEED_COLUMNS}
+   * @param parseExecutor executes parse stage of refresh, while worker thread downloads feed
+   * @param reparse       if true, feed is parsed from {@link FeedCache}, if it's cached there
+   */
+  public SyncWorker(@NonNull Cursor feed, @NonNull ContentProviderClient provider,
+                    @NonNull SyncDbWriter dbWriter, @NonNull ExecutorService parseExecutor,
+                    @NonNull SyncState syncState, boolean reparse) {
+    this.reparse = reparse;
     this.provider = provider;
+    this.dbWriter = dbWriter;
+    this.parseExecutor = parseExecutor;
     this.syncState = syncState;
-    this.refreshMode = refreshMode;
+    id = feed.getLong(feed.getColumnIndexOrThrow(Provider.K_ID));
+    scheduledId = id;
+    link = feed.getString(feed.getColumnIndexOrThrow(Provider.K_PFURL));
+    refreshMode = Provider.RefreshMode.values()[
+        feed.getInt(feed.getColumnIndexOrThrow(Provider.K_PRMODE))];
+    feedTitle = feed.getString(feed.getColumnIndexOrThrow(Provider.K_PNAME));
+    lastRefresh = feed.getLong(feed.getColumnIndexOrThrow(Provider.K_PTSTAMP));
+
+    // Conditional GET, hash comparison and incremental parsing make sense only if last refresh
+    // succeeded and there is no need to re-apply one-time refresh mode
+    if (feed.getInt(feed.getColumnIndexOrThrow(Provider.K_PSTATE)) == Provider.PSTATE_SEEN_ONCE &&
+        refreshMode == Provider.RefreshMode.ALL) {
+      eTag = feed.getString(feed.getColumnIndexOrThrow(Provider.K_PETAG));
+      lastModified = feed.getString(feed.getColumnIndexOrThrow(Provider.K_PLMODIFIED));
+      bodyHash = feed.getString(feed.getColumnIndexOrThrow(Provider.K_PHASH));
+      long fullRefreshTimestamp = feed.getLong(feed.getColumnIndexOrThrow(Provider.K_PFTSTAMP));
+      incremental = !reparse &&
+          new Date().getTime() - fullRefreshTimestamp < FULL_REFRESH_PERIOD;
+    } else {
+      eTag = null;
+      lastModified = null;
+      bodyHash = null;
+      incremental = false;
+    }
+  }
+
+  /** Aborts refresh if it exceeded its deadline */
+  void cancelIfOverdue() {
+    Deadline current = deadline;
+    if (current != null && current.isExpired()) {
+      Log.w(TAG, "Refresh of " + link + " exceeded deadline, aborting");
+      current.cancel();
+    }
+  }
+
+  /** Aborts refresh, if it's running */
+  void cancel() {
+    Deadline current = deadline;
+    if (current != null) {
+      current.cancel();
+    }
+  }
+
+  /** Reports refresh as timed out. Called instead of {@link #run()} if sync ran out of time */
+  void discard() {
+    syncState.signalTimeout(scheduledId, link);
   }
 
   @Override
   public void run() {
+    HttpClient.Response response = null;
+    InputStream cachedStream = null;
+    FeedCache.Entry cacheEntry = null;
+    deadline = new Deadline(FEED_DEADLINE);
     try {
-      InputStream inputStream = PodcastHelper.openConnectionWithTO(new URL(link)).getInputStream();
-      Feed feed = null;
-      try {
-        feed = EarlParser.parseOrThrow(inputStream, MAX_EPISODES_TO_PARSE);
-      } catch (XmlPullParserException parserException) {
-        // link could lead to podcast web-page. Check if it contains RSS links with audio episodes
-        for (String feedCandidate : scanPage(link)) {
-          try {
-            feed = EarlParser.parseOrThrow(
-                PodcastHelper.openConnectionWithTO(new URL(feedCandidate)).getInputStream(),
-                MAX_EPISODES_TO_PARSE);
-            if (feedHasAudioEpisodes(feed)) {
-              switchFeed(feedCandidate);
-              break;
-            }
-          } catch (XmlPullParserException | IOException exception) {
-            Log.i(TAG, feedCandidate + " parsing failed", exception);
-          }
+      // validators are kept on re-parse, as it doesn't change anything on server side
+      InputStream inputStream = null;
+      String newETag = eTag;
+      String newLastModified = lastModified;
+      String newHash = bodyHash;
+      // hashes feed body while it's parsed, if server doesn't provide validators
+      DigestInputStream digestStream = null;
+      // downloaded body is read by this thread and passed to parse stage through the pipe
+      InputStream body = null;
+      BodyPipe pipe = null;
+      if (reparse) {
+        cachedStream = FeedCache.open(id);
+        if (cachedStream == null) {
+          Log.i(TAG, "Feed " + link + " isn't cached, downloading it");
         }
-        if (feed == null) {
-          throw parserException;
+        inputStream = cachedStream;
+      }
+
+      if (inputStream == null) {
+        response = HttpClient.execute(new HttpClient.Request(new URL(link))
+                                          .conditional(eTag, lastModified)
+                                          .deadline(deadline));
+        if (response.permanentlyRedirected) {
+          // feed URL is stored in DB along with other feed data, ID is kept to preserve episodes
+          Log.i(TAG, "Feed " + link + " moved permanently to " + response.url);
+          link = response.url.toString();
+        }
+        if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+          Log.i(TAG, "Feed wasn't modified since last refresh: " + link);
+          markFeedUnchanged(response.permanentlyRedirected);
+          return;
+        }
+        body = response.getBody();
+        pipe = new BodyPipe(deadline);
+        inputStream = pipe.getInput();
+        newETag = response.getHeader("ETag");
+        newLastModified = response.getHeader("Last-Modified");
+        newHash = null;
+        if (newETag == null && newLastModified == null) {
+          // Server can't tell if feed changed, so body hash is compared with the one of previous
+          // refresh. Body is hashed while it's parsed rather than before, so that parsing doesn't
+          // wait for the whole download. The price is that unchanged feed is parsed anyway, only
+          // its DB writes and image downloads are skipped, see EpisodeWriter holdWrites
+          digestStream = new DigestInputStream(inputStream, createDigest());
+          inputStream = digestStream;
+        }
+        // keep a copy of downloaded feed to be able to re-parse it later
+        cacheEntry = FeedCache.startEntry();
+        if (cacheEntry != null) {
+          inputStream = cacheEntry.wrap(inputStream);
         }
       }
 
-      String title = updateFeed(id, feed);
+      LongHashSet knownIds = queryEpisodeIds(Provider.K_EPID + " == " + id);
+      // filter is queried after episodes, so that episodes compacted in between are still known
+      LongBloomFilter tombstoneFilter = queryTombstoneFilter();
 
       // Episodes need to be timestamped before subscriptions, otherwise cleanup algorithm may
       // delete fresh episodes in case of an exception between feed and episodes update
       Date timestamp = new Date();
 
-      int newEpisodesInserted = 0;
-      for (Item episode : feed.getItems()) {
-        boolean markNew = newEpisodesInserted < refreshMode.getCount();
-        Date pubDate = episode.getPublicationDate();
-        if (pubDate != null) {
-          markNew &= timestamp.getTime() - pubDate.getTime() < refreshMode.getMaxAge();
+      // there is nothing to compare hash with if previous refresh didn't store one
+      EpisodeWriter writer = new EpisodeWriter(
+          knownIds, tombstoneFilter, incremental, digestStream != null && bodyHash != null,
+          timestamp);
+      FeedParser.Channel feed;
+      try {
+        ParseJob job = new ParseJob(inputStream, writer, digestStream != null, cacheEntry);
+        feed = parse(job, pipe, body);
+      } catch (XmlPullParserException parserException) {
+        if (writer.itemsParsed != 0) {
+          throw parserException;
+        }
+        // link could lead to podcast web-page. Check if it contains RSS links with audio episodes
+        String audioFeed = findAudioFeed(scanPage(link));
+        if (audioFeed == null) {
+          // candidates could fail because of deadline, report it rather than parsing failure
+          deadline.check();
+          throw parserException;
         }
-        if (tryInsertEpisode(episode, id, provider, markNew) && markNew) {
-          newEpisodesInserted++;
+        switchFeed(audioFeed);
+        if (cacheEntry != null) {
+          cacheEntry.abort();
+          cacheEntry = null;
         }
+        // validators of web-page are of no use for feed refresh
+        newETag = null;
+        newLastModified = null;
+        newHash = null;
+        digestStream = null;
+        writer = new EpisodeWriter(knownIds, tombstoneFilter, false, false, timestamp);
+        feed = parseFeed(new URL(audioFeed), writer);
       }
 
-      ContentValues values = new ContentValues(3);
+      if (digestStream != null) {
+        newHash = toHex(digestStream.getMessageDigest().digest());
+        // if writer released writes, feed has new episodes, whatever the hash is
+        if (newHash.equals(bodyHash) && writer.isHoldingWrites()) {
+          Log.i(TAG, "Feed content didn't change since last refresh: " + link);
+          markFeedUnchanged(response.permanentlyRedirected);
+          return;
+        }
+      }
+      int newEpisodesInserted = writer.finish();
+
+      String title = updateFeed(id, feed);
+
+      // Cached copy could be outdated and lack some of the episodes seen on last refresh
+      boolean partial = writer.stoppedEarly || cachedStream != null;
+      if (partial) {
+        // rest of the feed wasn't parsed, assume it still contains episodes seen on last refresh
+        timestampSeenEpisodes(timestamp.getTime());
+      }
+
+      ContentValues values = new ContentValues(8);
       values.put(Provider.K_PSTATE, Provider.PSTATE_SEEN_ONCE);
+      values.put(Provider.K_PETAG, newETag);
+      values.put(Provider.K_PLMODIFIED, newLastModified);
+      values.put(Provider.K_PHASH, newHash);
       // refresh mode is set for one refresh only, so reset it to default after successful update
       values.put(Provider.K_PRMODE, Provider.RefreshMode.ALL.ordinal());
       values.put(Provider.K_PTSTAMP, timestamp.getTime());
+      if (!partial) {
+        values.put(Provider.K_PFTSTAMP, timestamp.getTime());
+      }
+      values.put(Provider.K_PNEXT, getNextRefresh(timestamp.getTime()));
       if (provider.update(Provider.getUri(Provider.T_PODCAST, id), values, null, null) == 1) {
-        syncState.signalFeedSuccess(title, newEpisodesInserted);
-        // delete every gone episode whose timestamp is less then feeds timestamp
-        BackgroundOperations.cleanupEpisodes(PodListenApp.getContext(), Provider.ESTATE_GONE);
+        // after incremental parsing stopped early, commit reads the rest of the body if it's short
+        if (cacheEntry != null) {
+          cacheEntry.commit(id);
+        }
+        syncState.signalFeedSuccess(scheduledId, title, newEpisodesInserted);
       } else {
         throw new RemoteException("Failed to update feed timestamp");
       }
 
+    } catch (Deadline.ExceededException exception) {
+      storeFeedError(exception);
+      syncState.signalTimeout(scheduledId, link);
     } catch (IOException exception) {
       storeFeedError(exception);
-      syncState.signalIOError(link);
+      syncState.signalIOError(scheduledId, link);
     } catch (RemoteException exception) {
       storeFeedError(exception);
-      syncState.signalDBError(link);
-    } catch (DataFormatException | XmlPullParserException exception) {
+      syncState.signalDBError(scheduledId, link);
+    } catch (XmlPullParserException exception) {
       storeFeedError(exception);
-      syncState.signalParseError(link);
+      syncState.signalParseError(scheduledId, link);
     } catch (Exception exception) {
       storeFeedError(exception);
-      syncState.signalIOError(link);
+      syncState.signalIOError(scheduledId, link);
+    } finally {
+      if (cacheEntry != null) {
+        cacheEntry.abort();
+      }
+      if (response != null) {
+        response.close();
+      }
+      if (cachedStream != null) {
+        try {
+          cachedStream.close();
+        } catch (IOException exception) {
+          Log.w(TAG, "Failed to close cached copy of " + link, exception);
+        }
+      }
+      deadline = null;
     }
   }
 
-  private boolean feedHasAudioEpisodes(@NonNull Feed feed) {
-    for (Item episode : feed.getItems()) {
-      if (extractAudioEnclosure(episode) != null) {
-        return true;
+  @NonNull
+  private static MessageDigest createDigest() throws IOException {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException exception) {
+      throw new IOException(HASH_ALGORITHM + " isn't supported", exception);
+    }
+  }
+
+  @NonNull
+  private static String toHex(@NonNull byte[] hash) {
+    StringBuilder result = new StringBuilder(hash.length * 2);
+    for (byte b : hash) {
+      result.append(String.format("%02x", b));
+    }
+    return result.toString();
+  }
+
+  /** Reads stream till end, so that wrapping streams see all of its content */
+  private static void drain(@NonNull InputStream stream) throws IOException {
+    byte[] buffer = new byte[8 * 1024];
+    while (stream.read(buffer) != -1) {
+      // content is consumed by wrapping streams
+    }
+  }
+
+  @NonNull
+  private FeedParser.Channel parseFeed(@NonNull URL url, @NonNull FeedParser.ItemSink sink)
+      throws IOException, XmlPullParserException, InterruptedException {
+    HttpClient.Response response = HttpClient.execute(
+        new HttpClient.Request(url).deadline(deadline));
+    try {
+      BodyPipe pipe = new BodyPipe(deadline);
+      return parse(new ParseJob(pipe.getInput(), sink, false, null), pipe, response.getBody());
+    } finally {
+      response.close();
+    }
+  }
+
+  /**
+   * Runs parse job in parse stage. Meanwhile, if body is given, this thread downloads it into the
+   * pipe job reads from, until body ends or job closes the pipe
+   */
+  @NonNull
+  private FeedParser.Channel parse(@NonNull ParseJob job, @Nullable BodyPipe pipe,
+                                   @Nullable InputStream body)
+      throws IOException, XmlPullParserException, InterruptedException {
+    Future<FeedParser.Channel> result = parseExecutor.submit(job);
+    try {
+      if (pipe != null && body != null) {
+        // download errors are reported by the job
+        pipe.pump(body);
+      }
+      return result.get();
+    } catch (ExecutionException exception) {
+      Throwable cause = exception.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof XmlPullParserException) {
+        throw (XmlPullParserException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
       }
+      throw new IOException("Feed parsing failed", cause);
+    } finally {
+      // interrupts the job if this thread was interrupted while waiting for it
+      result.cancel(true);
+    }
+  }
+
+  /**
+   * Parse stage of refresh: parses feed body and passes items to a sink, which stages episode
+   * writes for {@link SyncDbWriter}. Executed by parse executor, so that downloading threads aren't
+   * busy with parsing and parsing parallelism is limited by number of cores rather than by number
+   * of feeds downloaded at once.
+   */
+  private static class ParseJob implements Callable<FeedParser.Channel> {
+    private final InputStream input;
+    private final FeedParser.ItemSink sink;
+    private final boolean readAll;
+    private final FeedCache.Entry cacheEntry;
+
+    /**
+     * @param readAll    read the rest of input after parser stops, e.g. to get it hashed
+     * @param cacheEntry cache entry input is wrapped into, or null
+     */
+    ParseJob(@NonNull InputStream input, @NonNull FeedParser.ItemSink sink, boolean readAll,
+             @Nullable FeedCache.Entry cacheEntry) {
+      this.input = input;
+      this.sink = sink;
+      this.readAll = readAll;
+      this.cacheEntry = cacheEntry;
+    }
+
+    @Override
+    public FeedParser.Channel call() throws IOException, XmlPullParserException {
+      try {
+        FeedParser.Channel feed = new FeedParser(MAX_EPISODES_TO_PARSE).parse(input, sink);
+        if (readAll) {
+          drain(input);
+        } else if (cacheEntry != null) {
+          cacheEntry.drain();
+        }
+        return feed;
+      } finally {
+        // stops download of the rest of the body
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Server reported feed is the same as on previous refresh. Bump feed timestamp, and timestamps
+   * of episodes seen on previous refresh, so that cleanup won't consider them deleted from feed
+   *
+   * @param moved if feed was permanently redirected, new feed URL is stored too
+   */
+  private void markFeedUnchanged(boolean moved) throws RemoteException {
+    long newTimestamp = new Date().getTime();
+    FeedCache.touch(id);
+    timestampSeenEpisodes(newTimestamp);
+    ContentValues values = new ContentValues(3);
+    values.put(Provider.K_PTSTAMP, newTimestamp);
+    values.put(Provider.K_PNEXT, getNextRefresh(newTimestamp));
+    if (moved) {
+      values.put(Provider.K_PFURL, link);
+    }
+    if (provider.update(Provider.getUri(Provider.T_PODCAST, id), values, null, null) != 1) {
+      throw new RemoteException("Failed to update feed timestamp");
+    }
+    syncState.signalFeedSuccess(scheduledId, feedTitle, 0);
+  }
+
+  /** @return time till which automatic sync should skip the feed, see {@link Provider#K_PNEXT} */
+  private long getNextRefresh(long now) throws RemoteException {
+    long syncPeriodMs = Preferences.getInstance().getRefreshInterval().periodSeconds * 1000L;
+    return RefreshPlanner.getNextRefresh(provider, id, now, syncPeriodMs);
+  }
+
+  /**
+   * Sets given timestamp to all episodes and tombstones of the feed that were seen on last
+   * successful refresh
+   */
+  private void timestampSeenEpisodes(long newTimestamp) throws RemoteException {
+    ContentValues values = new ContentValues(1);
+    values.put(Provider.K_ETSTAMP, newTimestamp);
+    provider.update(
+        Provider.episodeUri,
+        values,
+        Provider.K_EPID + " == " + id + " AND " + Provider.K_ETSTAMP + " >= " + lastRefresh,
+        null);
+    values = new ContentValues(1);
+    values.put(Provider.K_TTSTAMP, newTimestamp);
+    provider.update(
+        Provider.tombstoneUri,
+        values,
+        Provider.K_TPID + " == " + id + " AND " + Provider.K_TTSTAMP + " >= " + lastRefresh,
+        null);
+  }
+
+  /** Stops parsing at the first item with audio enclosure */
+  private class AudioDetector implements FeedParser.ItemSink {
+    boolean audioFound = false;
+
+    @Override
+    public boolean onItem(@NonNull Item item) {
+      audioFound = extractAudioEnclosure(item) != null;
+      return !audioFound;
     }
-    return false;
   }
 
   private void switchFeed(@NonNull String newURL) throws RemoteException {
@@ -163,31 +545,144 @@ class SyncWorker implements Runnable {
   }
 
 
-  // match tags containing xml, rss and feed w/o nested tags and w/ href attribute
-  private static final Pattern hrefPattern = Pattern.compile(
-      "<[^><]*(?=[^><]*(?:gems|Feed|RSS|xml)[^><]*)(?=[^><]*href=\"([^\"]+)\"[^><]*)[^><]*>",
-      Pattern.CASE_INSENSITIVE);
-
+  /** @return links to possible feeds found on web-page, see {@link FeedLinkExtractor} */
   @NonNull
   private Set<String> scanPage(@NonNull String link) throws IOException {
-    Set<String> result = new HashSet<>();
-    InputStream stream = null;
+    HttpClient.Response response = HttpClient.execute(
+        new HttpClient.Request(new URL(link)).deadline(deadline));
+    try {
+      // redirects are followed, so relative links are resolved against final URL
+      return FeedLinkExtractor.extract(response.getBody(), response.url);
+    } finally {
+      response.close();
+    }
+  }
 
+  /**
+   * Checks candidates simultaneously, sniffing first {@link #SNIFF_SIZE} bytes of each.
+   *
+   * @return first candidate found to contain audio episodes, or null if there is no such
+   */
+  @Nullable
+  private String findAudioFeed(@NonNull Set<String> candidates) throws InterruptedException {
+    if (candidates.isEmpty()) {
+      return null;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(candidates.size(), MAX_PARALLEL_PROBES));
+    CompletionService<String> completionService = new ExecutorCompletionService<>(executor);
+    // each probe has its own deadline, so that probes left after a match could be aborted
+    List<Deadline> probeDeadlines = new ArrayList<>(candidates.size());
     try {
-      stream = new URL(link).openStream();
-      String page = new Scanner(stream, "UTF-8").useDelimiter("\\A").next();
-      Matcher matcher = hrefPattern.matcher(page);
-      while (matcher.find()) {
-        // TODO: handle relative links
-        result.add(matcher.group(1));
+      for (final String candidate : candidates) {
+        final Deadline probeDeadline = new Deadline(deadline.getRemainingMs());
+        probeDeadlines.add(probeDeadline);
+        completionService.submit(new Callable<String>() {
+          @Override
+          public String call() {
+            return probeFeed(candidate, probeDeadline) ? candidate : null;
+          }
+        });
       }
+      int probesLeft = candidates.size();
+      while (probesLeft > 0) {
+        Future<String> probe = completionService.poll(PROBE_POLL_PERIOD, TimeUnit.MILLISECONDS);
+        if (probe == null) {
+          // feed deadline could be cancelled by sync adapter
+          if (deadline.isExpired()) {
+            return null;
+          }
+          continue;
+        }
+        probesLeft--;
+        try {
+          String result = probe.get();
+          if (result != null) {
+            return result;
+          }
+        } catch (ExecutionException exception) {
+          Log.e(TAG, "Unexpected exception while checking feed", exception);
+        }
+      }
+      return null;
     } finally {
-      if (stream != null) {
-        stream.close();
+      for (Deadline probeDeadline : probeDeadlines) {
+        probeDeadline.cancel();
       }
+      executor.shutdownNow();
     }
+  }
 
-    return result;
+  /** @return true if first {@link #SNIFF_SIZE} bytes of feed contain an audio episode */
+  private boolean probeFeed(@NonNull String url, @NonNull Deadline probeDeadline) {
+    AudioDetector detector = new AudioDetector();
+    HttpClient.Response response = null;
+    try {
+      response = HttpClient.execute(new HttpClient.Request(new URL(url)).deadline(probeDeadline));
+      new FeedParser(MAX_EPISODES_TO_PARSE).parse(
+          new SizeLimitedInputStream(response.getBody(), SNIFF_SIZE), detector);
+    } catch (XmlPullParserException | IOException exception) {
+      // truncated feed fails to parse, but that's fine if audio was detected before the cut
+      if (!detector.audioFound) {
+        Log.i(TAG, url + " parsing failed", exception);
+      }
+    } finally {
+      if (response != null) {
+        response.close();
+      }
+    }
+    return detector.audioFound;
+  }
+
+  /** Reports end of stream after given number of bytes */
+  private static class SizeLimitedInputStream extends FilterInputStream {
+    private int left;
+
+    SizeLimitedInputStream(@NonNull InputStream in, int limit) {
+      super(in);
+      left = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (left <= 0) {
+        return -1;
+      }
+      int result = super.read();
+      if (result != -1) {
+        left--;
+      }
+      return result;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+      if (left <= 0) {
+        return -1;
+      }
+      int result = super.read(buffer, offset, Math.min(count, left));
+      if (result > 0) {
+        left -= result;
+      }
+      return result;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+      long result = super.skip(Math.min(count, left));
+      left -= result;
+      return result;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return Math.min(super.available(), left);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
   }
 
   void storeFeedError(@NonNull Exception exception) {
@@ -222,90 +717,436 @@ class SyncWorker implements Runnable {
 
   @Nullable
   private Enclosure extractAudioEnclosure(@NonNull Item episode) {
-    for (Enclosure enclosure : episode.getEnclosures()) {
-      String type = enclosure.getType();
+    for (Enclosure enclosure : episode.enclosures) {
+      String type = enclosure.type;
       if ((!TextUtils.isEmpty(type) && AUDIO_PATTERN.matcher(type).matches()) ||
-          (TextUtils.isEmpty(type) && urlPointsToAudio(enclosure.getLink()))) {
+          (TextUtils.isEmpty(type) && urlPointsToAudio(enclosure.link))) {
         return enclosure;
       }
     }
-    String link = episode.getLink();
+    String link = episode.link;
     if (link != null && urlPointsToAudio(link)) {
       Log.d(TAG, "Using <link> tag as audio enclosure " + link);
-      try {
-        return new RSSEnclosure(new URL(link), 0, "");
-      } catch (MalformedURLException exception) {
-        Log.e(TAG, "Malformed URL in episode link");
-      }
+      return new Enclosure(link, null, null);
     }
     return null;
   }
 
-  /** @return true if episode was inserted, false in case of error or if episode was already in DB */
-  private boolean tryInsertEpisode(
-      @NonNull Item episode, long subscriptionId,
-      @NonNull ContentProviderClient provider, boolean markNew) {
-    String title = episode.getTitle();
-    if (title == null) {
-      title = PodListenApp.getContext().getString(R.string.episode_no_title);
-    }
+  /** Feed item that has audio enclosure, staged for writing into DB */
+  private static class PendingEpisode {
+    final Item item;
+    final Enclosure enclosure;
+    final long urlId;
+    final long guidId;
 
-    // extract audio enclosure or return
-    Enclosure audioEnclosure = extractAudioEnclosure(episode);
-    if (audioEnclosure == null) {
-      Log.i(TAG, title + " lacks audio, skipped");
-      return false;
+    PendingEpisode(@NonNull Item item, @NonNull Enclosure enclosure) {
+      this.item = item;
+      this.enclosure = enclosure;
+      // In PodListen 1.3.6, id is a hash of Atom's ID or RSS's GUID. If these fields are absent in
+      // feed or PodListen version is lower than 1.3.6, id is a hash of audio url
+      urlId = PodcastHelper.generateId(enclosure.link);
+      String guid = item.id;
+      guidId = guid == null ? urlId : PodcastHelper.generateId(guid);
     }
-    Integer audioSize = audioEnclosure.getLength();
+  }
+
+  @NonNull
+  private static String getTitle(@NonNull Item episode) {
+    String title = episode.title;
+    return title == null ? PodListenApp.getContext().getString(R.string.episode_no_title) : title;
+  }
+
+  /** @return IDs of episodes matching selection */
+  @NonNull
+  private LongHashSet queryEpisodeIds(@NonNull String selection) throws RemoteException {
+    return queryIds(Provider.episodeUri, selection);
+  }
+
+  /** @return IDs of rows of given table matching selection */
+  @NonNull
+  private LongHashSet queryIds(@NonNull Uri table, @NonNull String selection)
+      throws RemoteException {
+    return queryIds(table, selection, null);
+  }
 
-    Date timestamp = new Date();
+  /**
+   * @param result set to add IDs to, or null to create a new one
+   * @return IDs of rows of given table matching selection
+   */
+  @NonNull
+  private LongHashSet queryIds(@NonNull Uri table, @NonNull String selection,
+                               @Nullable LongHashSet result) throws RemoteException {
+    Cursor cursor = provider.query(table, new String[]{Provider.K_ID}, selection, null, null);
+    if (cursor == null) {
+      throw new RemoteException("Failed to query IDs of " + table);
+    }
+    if (result == null) {
+      result = new LongHashSet(cursor.getCount());
+    }
+    try {
+      int idColumn = cursor.getColumnIndexOrThrow(Provider.K_ID);
+      while (cursor.moveToNext()) {
+        result.add(cursor.getLong(idColumn));
+      }
+    } finally {
+      cursor.close();
+    }
+    return result;
+  }
 
-    // try update episode timestamp. If this fails, episode is not yet in db, insert it
-    // In PodListen 1.3.6, id is a hash of Atom's ID or RSS's GUID. If these fields are absent in
-    // feed or PodListen version is lower than 1.3.6, id is a hash of audio url
-    long id = PodcastHelper.generateId(audioEnclosure.getLink());
+  /** @return Bloom filter of tombstones of the feed, or null if it has none */
+  @Nullable
+  private LongBloomFilter queryTombstoneFilter() throws RemoteException {
+    Cursor cursor = provider.query(Provider.getUri(Provider.T_PODCAST, id),
+                                   new String[]{Provider.K_PTFILTER}, null, null, null);
+    if (cursor == null) {
+      throw new RemoteException("Failed to query tombstone filter");
+    }
     try {
-      if (updateEpisodeTimestamp(id, provider, timestamp)) {
+      return cursor.moveToFirst() ? LongBloomFilter.fromBytes(cursor.getBlob(0)) : null;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private static void appendId(@NonNull StringBuilder idList, long id) {
+    if (idList.length() != 0) {
+      idList.append(',');
+    }
+    idList.append(id);
+  }
+
+  /**
+   * Writes feed items to DB as they are parsed. Items are classified in memory using preloaded IDs
+   * of feed episodes: known ones are timestamped with one set-based update, new ones are bulk
+   * inserted. Both are flushed every {@link #WRITE_BATCH_SIZE} items to {@link SyncDbWriter}, so
+   * memory usage doesn't depend on feed size, and parsing proceeds while previous batch is being
+   * written. Episode images are loaded after parsing to not stall feed download.
+   * <p/>
+   * Items not found among feed episodes are checked against feed tombstones (see
+   * {@link Provider#T_TOMBSTONE}). Bloom filter answers that for new items in memory, tombstone IDs
+   * are loaded from DB only on the first filter hit. Tombstoned items count as known ones.
+   * <p/>
+   * In incremental mode parsing stops after {@link #KNOWN_ITEMS_TO_STOP} consecutive audio items
+   * already stored in DB, unless feed turns out to be unsorted, see {@link KnownRunDetector}.
+   * <p/>
+   * If writes are held, batches are kept in memory until {@link #finish()}, so that nothing is
+   * written if feed body turns out to be the same as on previous refresh.
+   */
+  private class EpisodeWriter implements FeedParser.ItemSink {
+    int itemsParsed = 0;
+    boolean stoppedEarly = false;
+    private final LongHashSet knownIds;
+    private final LongBloomFilter tombstoneFilter;
+    // null if parsing shouldn't stop early
+    private final KnownRunDetector knownRunDetector;
+    private final Date timestamp;
+    private final LongHashSet staged = new LongHashSet(WRITE_BATCH_SIZE);
+    private final StringBuilder presentIds = new StringBuilder();
+    private final StringBuilder stagedIds = new StringBuilder();
+    private final List<ContentValues> rows = new ArrayList<>(WRITE_BATCH_SIZE);
+    private final List<PendingEpisode> markedNew = new ArrayList<>();
+    private final LongSparseArray<String> imagesToLoad = new LongSparseArray<>();
+    private final ArrayDeque<Batch> pendingBatches = new ArrayDeque<>();
+    private final ArrayDeque<Batch> heldBatches = new ArrayDeque<>();
+    private boolean holdWrites;
+    private LongHashSet tombstoneIds; // loaded on first filter hit
+    private int presentCount = 0;
+    private int newEpisodes = 0;
+    private RemoteException failure;
+    private InterruptedException interruption;
+    private boolean expired = false;
+
+    /**
+     * @param knownIds IDs of episodes of this feed stored in DB
+     * @param tombstoneFilter Bloom filter of feed tombstones, null if there are none
+     * @param holdWrites if true, batches are held until {@link #finish()}, so that they could be
+     *                   dropped if feed turns out unchanged. Only batches without new episodes are
+     *                   held, so they take little memory. New episode means feed changed since
+     *                   last refresh, so held batches are released then
+     */
+    EpisodeWriter(@NonNull LongHashSet knownIds, @Nullable LongBloomFilter tombstoneFilter,
+                  boolean incremental, boolean holdWrites, @NonNull Date timestamp) {
+      this.knownIds = knownIds;
+      this.tombstoneFilter = tombstoneFilter;
+      this.holdWrites = holdWrites;
+      knownRunDetector = incremental ? new KnownRunDetector(KNOWN_ITEMS_TO_STOP) : null;
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public boolean onItem(@NonNull Item item) {
+      if (deadline.isExpired()) {
+        expired = true;
         return false;
       }
-      String guid = episode.getId();
-      if (guid != null) {
-        id = PodcastHelper.generateId(guid);
-        if (updateEpisodeTimestamp(id, provider, timestamp)) {
+      itemsParsed++;
+      if (knownRunDetector != null) {
+        knownRunDetector.onDate(item.publicationDate);
+      }
+
+      Enclosure audioEnclosure = extractAudioEnclosure(item);
+      if (audioEnclosure == null) {
+        Log.i(TAG, getTitle(item) + " lacks audio, skipped");
+        return true;
+      }
+      PendingEpisode episode = new PendingEpisode(item, audioEnclosure);
+      long knownId;
+      try {
+        knownId = findKnownId(episode);
+      } catch (RemoteException exception) {
+        failure = exception;
+        return false;
+      }
+      boolean known = knownId != 0;
+      if (known) {
+        appendId(presentIds, knownId);
+        presentCount++;
+      } else {
+        stage(episode);
+      }
+
+      boolean stop = knownRunDetector != null && knownRunDetector.onItem(known);
+      if (stop) {
+        Log.i(TAG, "Incremental parsing of " + link + " stopped at item " + itemsParsed);
+        stoppedEarly = true;
+      }
+      if (stop || rows.size() + presentCount >= WRITE_BATCH_SIZE) {
+        try {
+          flush();
+        } catch (RemoteException exception) {
+          failure = exception;
+          return false;
+        } catch (InterruptedException exception) {
+          interruption = exception;
           return false;
         }
       }
-    } catch (RemoteException exception) {
-      Log.e(TAG, "DB failed to timestamp episode " + id + ", skipping, exception: ", exception);
-      return false;
+      return !stop;
     }
 
-    if (audioSize == null || audioSize < 10 * 1024) {
-      try {
-        audioSize = PodcastHelper.openConnectionWithTO(
-            new URL(audioEnclosure.getLink())).getContentLength();
-      } catch (MalformedURLException ex) {
-        Log.e(TAG,
-              "Episode " + episode.getLink() + " has malformed URL: " + audioEnclosure.getLink(),
-              ex);
+    /** @return ID of episode stored in DB or tombstoned, 0 if episode is new */
+    private long findKnownId(@NonNull PendingEpisode episode) throws RemoteException {
+      if (knownIds.contains(episode.guidId)) {
+        return episode.guidId;
+      } else if (knownIds.contains(episode.urlId)) {
+        return episode.urlId;
+      } else if (isTombstoned(episode.guidId)) {
+        return episode.guidId;
+      } else if (isTombstoned(episode.urlId)) {
+        return episode.urlId;
+      }
+      return 0;
+    }
+
+    private boolean isTombstoned(long episodeId) throws RemoteException {
+      if (tombstoneFilter == null || !tombstoneFilter.mightContain(episodeId)) {
         return false;
-      } catch (IOException ex) {
-        Log.e(TAG, "Leaving wrong episode size for " + episode.getLink(), ex);
       }
+      if (tombstoneIds == null) {
+        tombstoneIds = queryIds(Provider.tombstoneUri, Provider.K_TPID + " == " + id);
+      }
+      return tombstoneIds.contains(episodeId);
+    }
+
+    private void stage(@NonNull PendingEpisode episode) {
+      // feed may contain duplicate items, only first one of them gets inserted
+      if (!staged.add(episode.guidId)) {
+        return;
+      }
+      boolean markNew = newEpisodes < refreshMode.getCount();
+      Date pubDate = episode.item.publicationDate;
+      if (pubDate != null) {
+        markNew &= timestamp.getTime() - pubDate.getTime() < refreshMode.getMaxAge();
+      }
+      ContentValues values = getEpisodeValues(episode, markNew, timestamp);
+      if (values != null) {
+        rows.add(values);
+        appendId(stagedIds, episode.guidId);
+        if (markNew) {
+          markedNew.add(episode);
+          newEpisodes++;
+        }
+      }
+    }
+
+    private void flush() throws RemoteException, InterruptedException {
+      if (presentCount != 0 || !rows.isEmpty()) {
+        Batch batch = new Batch(this);
+        presentIds.setLength(0);
+        presentCount = 0;
+        rows.clear();
+        stagedIds.setLength(0);
+        markedNew.clear();
+        if (holdWrites && batch.hasNoRows()) {
+          heldBatches.add(batch);
+        } else {
+          releaseHeldBatches();
+          submit(batch);
+        }
+      }
+    }
+
+    /** @return true if nothing was written to DB yet, as writes are held */
+    boolean isHoldingWrites() {
+      return holdWrites;
+    }
+
+    private void releaseHeldBatches() throws RemoteException, InterruptedException {
+      holdWrites = false;
+      while (!heldBatches.isEmpty()) {
+        submit(heldBatches.poll());
+      }
+    }
+
+    private void submit(@NonNull Batch batch) throws RemoteException, InterruptedException {
+      batch.submit();
+      pendingBatches.add(batch);
+      while (pendingBatches.size() > MAX_PENDING_BATCHES) {
+        complete(pendingBatches.poll());
+      }
+    }
+
+    /** Waits for batch to be written and takes account of its new episodes */
+    private void complete(@NonNull Batch batch) throws RemoteException, InterruptedException {
+      LongHashSet foreignIds = SyncDbWriter.getResult(batch.result);
+      for (PendingEpisode episode : batch.markedNew) {
+        if (foreignIds.contains(episode.guidId)) {
+          newEpisodes--;
+          continue;
+        }
+        Log.d(TAG, "New episode! " + getTitle(episode.item));
+        if (episode.item.imageLink != null) {
+          imagesToLoad.put(episode.guidId, episode.item.imageLink);
+        }
+      }
+    }
+
+    /**
+     * Flushes remaining items and loads images of new episodes
+     * @return number of episodes inserted with NEW state
+     * @throws RemoteException if some DB write failed during parsing
+     * @throws Deadline.ExceededException if deadline expired during parsing
+     */
+    int finish() throws RemoteException, InterruptedException, Deadline.ExceededException {
+      if (failure != null) {
+        throw failure;
+      }
+      if (interruption != null) {
+        throw interruption;
+      }
+      if (expired) {
+        deadline.check();
+      }
+      releaseHeldBatches();
+      flush();
+      while (!pendingBatches.isEmpty()) {
+        complete(pendingBatches.poll());
+      }
+      for (int i = 0; i < imagesToLoad.size(); i++) {
+        if (deadline.isExpired()) {
+          Log.w(TAG, "Deadline exceeded, skipping images of " + link);
+          break;
+        }
+        long episodeId = imagesToLoad.keyAt(i);
+        String image = imagesToLoad.valueAt(i);
+        if (!ImageManager.getInstance().isDownloaded(episodeId)) {
+          try {
+            ImageManager.getInstance().download(episodeId, new URL(image), deadline);
+          } catch (IOException exception) {
+            Log.w(TAG, image + ": Episode image download failed: ", exception);
+          }
+        }
+      }
+      return newEpisodes;
+    }
+  }
+
+  /**
+   * Episode writes of a flush, executed by {@link SyncDbWriter}. Result of the job is a set of
+   * staged episode IDs that failed to insert because they belong to other feeds
+   */
+  private class Batch implements Callable<LongHashSet> {
+    final List<PendingEpisode> markedNew;
+    Future<LongHashSet> result;
+    private final String presentIds;
+    private final String stagedIds;
+    private final ContentValues[] rows;
+    private final long timestamp;
+
+    Batch(@NonNull EpisodeWriter writer) {
+      presentIds = writer.presentCount == 0 ? null : writer.presentIds.toString();
+      stagedIds = writer.stagedIds.toString();
+      rows = writer.rows.toArray(new ContentValues[writer.rows.size()]);
+      markedNew = new ArrayList<>(writer.markedNew);
+      timestamp = writer.timestamp.getTime();
+    }
+
+    void submit() throws InterruptedException {
+      result = dbWriter.submit(this);
+    }
+
+    boolean hasNoRows() {
+      return rows.length == 0;
+    }
+
+    @Override
+    public LongHashSet call() throws RemoteException {
+      // 1. Timestamp episodes that are still in feed. Episode could be compacted into tombstone
+      // since it was classified, so both tables are updated
+      if (presentIds != null) {
+        ContentValues values = new ContentValues(1);
+        values.put(Provider.K_ETSTAMP, timestamp);
+        provider.update(
+            Provider.episodeUri, values, Provider.K_ID + " IN (" + presentIds + ")", null);
+        values = new ContentValues(1);
+        values.put(Provider.K_TTSTAMP, timestamp);
+        provider.update(
+            Provider.tombstoneUri, values, Provider.K_ID + " IN (" + presentIds + ")", null);
+      }
+
+      // 2. Insert new episodes
+      if (rows.length != 0) {
+        int inserted = provider.bulkInsert(Provider.episodeUri, rows);
+        if (inserted != rows.length) {
+          // Some episodes could be already stored in DB as a part of other feed, or compacted
+          // into tombstones of any feed, which blocks their insertion. Don't count them
+          Log.w(TAG, "Failed to insert " + (rows.length - inserted) + " episodes of " + link);
+          String staged = Provider.K_ID + " IN (" + stagedIds + ")";
+          LongHashSet result = queryEpisodeIds(staged + " AND " + Provider.K_EPID + " != " + id);
+          return queryIds(Provider.tombstoneUri, staged, result);
+        }
+      }
+      return new LongHashSet(0);
+    }
+  }
+
+  /** @return values to insert into DB, or null if episode has malformed audio URL */
+  @Nullable
+  private ContentValues getEpisodeValues(@NonNull PendingEpisode episode, boolean markNew,
+                                         @NonNull Date timestamp) {
+    Item item = episode.item;
+    Enclosure audioEnclosure = episode.enclosure;
+    try {
+      new URL(audioEnclosure.link);
+    } catch (MalformedURLException ex) {
+      Log.e(TAG, "Episode " + item.link + " has malformed URL: " + audioEnclosure.link, ex);
+      return null;
     }
 
-    // put episode into DB
     ContentValues values = new ContentValues();
-    values.put(Provider.K_ENAME, title);
-    values.put(Provider.K_EAURL, audioEnclosure.getLink());
-    String description = episode.getDescription();
+    values.put(Provider.K_ENAME, getTitle(item));
+    values.put(Provider.K_EAURL, audioEnclosure.link);
+    String description = item.description;
     if (description != null) {
-      String simplifiedDescription = simplifyHTML(description);
+      String simplifiedDescription = HtmlSimplifier.simplify(description);
       values.put(Provider.K_EDESCR, simplifiedDescription);
-      values.put(Provider.K_ESDESCR, getShortDescription(simplifiedDescription));
+      values.put(Provider.K_ESDESCR, HtmlSimplifier.toPlainText(
+          simplifiedDescription, Provider.SHORT_DESCR_LENGTH));
     }
-    values.put(Provider.K_EURL, episode.getLink());
-    values.put(Provider.K_ESIZE, audioSize);
+    values.put(Provider.K_EURL, item.link);
+    // missing and bogus sizes are probed by SizeProbeService after sync
+    values.put(Provider.K_ESIZE, audioEnclosure.length);
     values.put(Provider.K_EERROR, (String) null);
     values.put(Provider.K_EPLAYED, -1);
     values.put(Provider.K_ELENGTH, 0);
@@ -313,52 +1154,41 @@ class SyncWorker implements Runnable {
     values.put(Provider.K_EDTSTAMP, 0);
     values.put(Provider.K_EDFIN, 0);
     values.put(Provider.K_EDID, 0);
-    values.put(Provider.K_EDATE, correctDate(episode.getPublicationDate(), timestamp).getTime());
-    values.put(Provider.K_EPID, subscriptionId);
-    values.put(Provider.K_ID, id);
+    values.put(Provider.K_EDATE, correctDate(item.publicationDate, timestamp).getTime());
+    values.put(Provider.K_EPID, id);
+    values.put(Provider.K_ID, episode.guidId);
     values.put(Provider.K_ETSTAMP, timestamp.getTime());
     values.put(Provider.K_ESTATE, markNew ? Provider.ESTATE_NEW : Provider.ESTATE_GONE);
-    try {
-      provider.insert(Provider.episodeUri, values);
-    } catch (RemoteException exception) {
-      Log.e(TAG, "Episode insert failed: ", exception);
-      return false;
-    }
-
-    // notify DownloadReceiver about new episode
-    if (markNew) {
-      Log.d(TAG, "New episode! " + title);
-      String image = episode.getImageLink();
-      if (!ImageManager.getInstance().isDownloaded(id) && image != null) {
-        try {
-          ImageManager.getInstance().download(id, new URL(image));
-        } catch (IOException exception) {
-          Log.w(TAG, image + ": Episode image download failed: ", exception);
-        }
-      }
-    }
-
-    return true;
+    return values;
   }
 
-  @NonNull
-  private String updateFeed(long id, @NonNull Feed feed)
+  /** @return feed title, or null if neither feed nor DB has it */
+  @Nullable
+  private String updateFeed(long id, @NonNull FeedParser.Channel feed)
       throws RemoteException {
+    // channel fields declared after items are missing if parsing stopped early, keep stored ones
     ContentValues values = new ContentValues();
-    String title = feed.getTitle();
     values.put(Provider.K_PFURL, link);
-    values.put(Provider.K_PURL, feed.getLink());
-    values.put(Provider.K_PNAME, title);
-    String description = feed.getDescription();
+    if (feed.link != null) {
+      values.put(Provider.K_PURL, feed.link);
+    }
+    String title = feed.title;
+    if (title != null) {
+      values.put(Provider.K_PNAME, title);
+    } else {
+      title = feedTitle;
+    }
+    String description = feed.description;
     if (description != null) {
-      String simplifiedDescription = simplifyHTML(description);
+      String simplifiedDescription = HtmlSimplifier.simplify(description);
       values.put(Provider.K_PDESCR, simplifiedDescription);
-      values.put(Provider.K_PSDESCR, getShortDescription(simplifiedDescription));
+      values.put(Provider.K_PSDESCR, HtmlSimplifier.toPlainText(
+          simplifiedDescription, Provider.SHORT_DESCR_LENGTH));
     }
-    String image = feed.getImageLink();
-    if (!ImageManager.getInstance().isDownloaded(id) && image != null) {
+    String image = feed.imageLink;
+    if (!ImageManager.getInstance().isDownloaded(id) && image != null && !deadline.isExpired()) {
       try {
-        ImageManager.getInstance().download(id, new URL(image));
+        ImageManager.getInstance().download(id, new URL(image), deadline);
       } catch (IOException exception) {
         Log.w(TAG, image + ": Feed image download failed: ", exception);
       }
@@ -368,99 +1198,4 @@ class SyncWorker implements Runnable {
     }
     return title;
   }
-
-  @NonNull
-  private static String getShortDescription(@NonNull String htmlDescription) {
-    String plain = Html.fromHtml(htmlDescription).toString();
-    int pL = plain.length();
-    return plain.substring(0, pL > Provider.SHORT_DESCR_LENGTH ? Provider.SHORT_DESCR_LENGTH : pL);
-  }
-
-  // use <br[^>]*> instead of <br.*?> because <br.*?><bt.*?> will match <br/><sometag><br/>
-  private static final String BR_TAG = "</?br[^>]*>";
-  private static final Pattern listPattern = Pattern.compile("<li[^>]*>");
-  private static final Pattern brPattern = Pattern.compile("</?img[^>]*>|</?li[^>]*>|\\n");
-  private static final Pattern paragraphPattern = Pattern.compile("</?p[^>]*>");
-  private static final Pattern trimStartPattern = Pattern.compile("\\A(\\s|" + BR_TAG + ")*");
-  private static final Pattern trimEndPattern = Pattern.compile("(\\s|" + BR_TAG + ")*\\Z");
-  private static final Pattern brRepeatPattern = Pattern.compile("(\\s*" + BR_TAG + "\\s*)+");
-
-  // patterns from android.utils.Patterns with \s appended to begin and end of pattern to not match
-  // links that are already inside tags. Also, capturing groups replaced with non-capturing
-  private static final String GOOD_IRI_CHAR = "a-zA-Z0-9\u00A0-\uD7FF\uF900-\uFDCF\uFDF0-\uFFEF";
-  private static final String IP_ADDRESS =
-      "(?:(?:25[0-5]|2[0-4][0-9]|[0-1][0-9]{2}|[1-9][0-9]|[1-9])\\.(?:25[0-5]|2[0-4]"
-          + "[0-9]|[0-1][0-9]{2}|[1-9][0-9]|[1-9]|0)\\.(?:25[0-5]|2[0-4][0-9]|[0-1]"
-          + "[0-9]{2}|[1-9][0-9]|[1-9]|0)\\.(?:25[0-5]|2[0-4][0-9]|[0-1][0-9]{2}"
-          + "|[1-9][0-9]|[0-9]))";
-  private static final String IRI =
-      "[" + GOOD_IRI_CHAR + "](?:[" + GOOD_IRI_CHAR + "\\-]{0,61}[" + GOOD_IRI_CHAR + "])?";
-  private static final String GTLD = "[a-zA-Z\u00C0-\uD7FF\uF900-\uFDCF\uFDF0-\uFFEF]{2,63}";
-  private static final String HOST_NAME = "(?:" + IRI + "\\.)+" + GTLD;
-  private static final String DOMAIN_NAME = "(?:" + HOST_NAME + "|" + IP_ADDRESS + ")";
-  // last part of number should be longer than 7 symbols, otherwise it will match dates (2015-02-02)
-  private static final Pattern PHONE = Pattern.compile(
-      "(\\A|\\s|<br/>)+" +
-          "((?:\\+[0-9]+[\\- \\.]*)?(?:\\([0-9]+\\)[\\- \\.]*)?(?:[0-9][0-9\\- \\.]{9,}[0-9]))" +
-          "(\\Z|\\s|<br/>)+");
-  private static final Pattern EMAIL_ADDRESS = Pattern.compile(
-      "(\\A|\\s|<br/>)+" +
-          "([a-zA-Z0-9\\+\\._%\\-]{1,256}@[a-zA-Z0-9][a-zA-Z0-9\\-]{0,64}" +
-          "(?:\\.[a-zA-Z0-9][a-zA-Z0-9\\-]{0,25}))" +
-          "(\\Z|\\s|<br/>)+"
-  );
-  private static final String IRI_PART = "(?:/(?:(?:[" + GOOD_IRI_CHAR +
-      ";/\\?:@&=#~\\-\\.\\+!\\*'\\(\\),_])|(?:%[a-fA-F0-9]{2}))*)?";
-  private static final Pattern WEB_URL = Pattern.compile(
-      "(\\A|\\s|<br/>)+" +
-          "((?:(?:(?:http|https|Http|Https|rtsp|Rtsp)://(?:(?:[a-zA-Z0-9\\$\\-_\\.\\+!\\*" +
-          "'\\(\\),;\\?&=]|(?:%[a-fA-F0-9]{2})){1,64}(?::(?:[a-zA-Z0-9\\$\\-_" +
-          "\\.\\+!\\*\\(\\),;\\?&=]|(?:%[a-fA-F0-9]{2})){1,25})?@)?)?" +
-          DOMAIN_NAME + "(?::\\d{1,5})?)" + IRI_PART + ")" +
-          "(\\b|$|<br/>)+");
-  private static final Pattern WEB_URL_NO_PROTO = Pattern.compile(
-      "(\\A|\\s|<br/>)+" +
-          "((?:" + DOMAIN_NAME + "(?::\\d{1,5})?)" + IRI_PART + ")" +
-          "(\\b|$|<br/>)+");
-
-  @NonNull
-  static String simplifyHTML(@NonNull String text) {
-    // replace opening <li> tag with bullet symbol. Otherwise <li> will be thrown out by Html.toHtml
-    text = listPattern.matcher(text).replaceAll("\u2022");
-
-    // replace \n and </li> with line breaks. Need all LF tokens to be <br> to reduce them later
-    text = brPattern.matcher(text).replaceAll("<br/>");
-
-    // throw out tags not supported by spanned text
-    text = Html.toHtml(Html.fromHtml(text));
-
-    // toHtml may add some excess <p> tags
-    text = paragraphPattern.matcher(text).replaceAll("<br/>");
-
-    // There is a problem: toHtml returns escaped html, thus making resulting string much longer.
-    // The only solution I found is to make use of unbescape library.
-    text = XmlEscape.unescapeXml(text);
-
-    // trim all whitespaces and <br>'s at the start and at the end
-    text = trimEndPattern.matcher(text).replaceAll("");
-    text = trimStartPattern.matcher(text).replaceAll("");
-
-    // reduce repeated <br>'s
-    text = brRepeatPattern.matcher(text).replaceAll("<br/>");
-
-    // using autoLinks="all" for TextView will highlight links in flat text, but will break <href>'s
-    text = EMAIL_ADDRESS.matcher(text).replaceAll("$1<a href=\"mailto:$2\">$2</a>$3");
-    text = WEB_URL_NO_PROTO.matcher(text).replaceAll("$1<a href=\"http://$2\">$2</a>$3");
-    text = WEB_URL.matcher(text).replaceAll("$1<a href=\"$2\">$2</a>$3");
-    text = PHONE.matcher(text).replaceAll("$1<a href=\"tel:$2\">$2</a>$3");
-
-    return text;
-  }
-
-  private boolean updateEpisodeTimestamp(long id, @NonNull ContentProviderClient provider,
-                                         @NonNull Date timestamp) throws RemoteException {
-    ContentValues values = new ContentValues();
-    values.put(Provider.K_ETSTAMP, timestamp.getTime());
-    return provider.update(Provider.getUri(Provider.T_EPISODE, id), values, null, null) > 0;
-  }
 }
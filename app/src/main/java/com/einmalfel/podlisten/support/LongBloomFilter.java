@@ -0,0 +1,77 @@
+package com.einmalfel.podlisten.support;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter of primitive longs. Tells for sure that a value wasn't added, and has about 1%
+ * false positive rate for values that weren't added, if it holds expected number of elements.
+ * Could be serialized to a byte array to be stored in DB.
+ */
+public class LongBloomFilter {
+  private static final int BITS_PER_ELEMENT = 10;
+  private static final int HASHES = 7;
+  private static final int MIN_BITS = 64;
+
+  private final long[] bits;
+  private final long bitCount;
+
+  public LongBloomFilter(int expectedSize) {
+    int words = (Math.max(MIN_BITS, expectedSize * BITS_PER_ELEMENT) + 63) / 64;
+    bits = new long[words];
+    bitCount = words * 64L;
+  }
+
+  private LongBloomFilter(long[] bits) {
+    this.bits = bits;
+    bitCount = bits.length * 64L;
+  }
+
+  /** @return filter stored by {@link #toBytes()} or null if data is malformed */
+  public static LongBloomFilter fromBytes(byte[] data) {
+    if (data == null || data.length == 0 || data.length % 8 != 0) {
+      return null;
+    }
+    long[] bits = new long[data.length / 8];
+    ByteBuffer.wrap(data).asLongBuffer().get(bits);
+    return new LongBloomFilter(bits);
+  }
+
+  public byte[] toBytes() {
+    ByteBuffer buffer = ByteBuffer.allocate(bits.length * 8);
+    buffer.asLongBuffer().put(bits);
+    return buffer.array();
+  }
+
+  public void add(long value) {
+    // double hashing: i-th hash is h1 + i * h2
+    long h1 = mix(value);
+    long h2 = mix(h1) | 1;
+    for (int i = 0; i < HASHES; i++) {
+      long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  /** @return false if value surely wasn't added, true if it probably was */
+  public boolean mightContain(long value) {
+    long h1 = mix(value);
+    long h2 = mix(h1) | 1;
+    for (int i = 0; i < HASHES; i++) {
+      long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // finalizer of MurmurHash3, spreads bits of DB IDs, which are shifted string hashes
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+}
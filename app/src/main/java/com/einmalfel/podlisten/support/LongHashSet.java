@@ -0,0 +1,126 @@
+package com.einmalfel.podlisten.support;
+
+/**
+ * Set of primitive longs based on open addressing hash table with linear probing. Unlike
+ * HashSet&lt;Long&gt;, it doesn't allocate objects per element, so it's cheap to fill it with
+ * thousands of DB IDs.
+ */
+public class LongHashSet {
+  private static final int MIN_CAPACITY = 16;
+
+  // zero marks free cells of the table, so zero element is tracked separately
+  private long[] table;
+  private boolean containsZero = false;
+  private int size = 0;
+
+  public LongHashSet(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    // keep load factor below 0.5
+    while (capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    table = new long[capacity];
+  }
+
+  /** @return true if set didn't contain given value */
+  public boolean add(long value) {
+    if (value == 0) {
+      if (containsZero) {
+        return false;
+      }
+      containsZero = true;
+      size++;
+      return true;
+    }
+    int mask = table.length - 1;
+    int index = hash(value) & mask;
+    while (table[index] != 0) {
+      if (table[index] == value) {
+        return false;
+      }
+      index = (index + 1) & mask;
+    }
+    table[index] = value;
+    size++;
+    if (size * 2 > table.length) {
+      grow();
+    }
+    return true;
+  }
+
+  public boolean contains(long value) {
+    if (value == 0) {
+      return containsZero;
+    }
+    int mask = table.length - 1;
+    int index = hash(value) & mask;
+    while (table[index] != 0) {
+      if (table[index] == value) {
+        return true;
+      }
+      index = (index + 1) & mask;
+    }
+    return false;
+  }
+
+  /** @return true if set contained given value */
+  public boolean remove(long value) {
+    if (value == 0) {
+      if (!containsZero) {
+        return false;
+      }
+      containsZero = false;
+      size--;
+      return true;
+    }
+    int mask = table.length - 1;
+    int index = hash(value) & mask;
+    while (table[index] != value) {
+      if (table[index] == 0) {
+        return false;
+      }
+      index = (index + 1) & mask;
+    }
+    // shift following elements of probe sequence back, so that lookups don't stop at the gap
+    int gap = index;
+    for (int next = (gap + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+      int home = hash(table[next]) & mask;
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        table[gap] = table[next];
+        gap = next;
+      }
+    }
+    table[gap] = 0;
+    size--;
+    return true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  private void grow() {
+    long[] oldTable = table;
+    table = new long[oldTable.length * 2];
+    int mask = table.length - 1;
+    for (long value : oldTable) {
+      if (value != 0) {
+        int index = hash(value) & mask;
+        while (table[index] != 0) {
+          index = (index + 1) & mask;
+        }
+        table[index] = value;
+      }
+    }
+  }
+
+  // DB IDs are string hashes shifted to positive range, spread them with Fibonacci hashing
+  private static int hash(long value) {
+    long hash = value * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32));
+  }
+}
@@ -0,0 +1,135 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BodyPipeTest {
+  private static final long TIMEOUT_MS = 10 * 1000;
+
+  /** Endless stream of zeroes counting bytes read from it */
+  private static class EndlessStream extends InputStream {
+    final AtomicLong bytesRead = new AtomicLong();
+
+    @Override
+    public int read() {
+      bytesRead.incrementAndGet();
+      return 0;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int count) {
+      Arrays.fill(buffer, offset, offset + count, (byte) 0);
+      bytesRead.addAndGet(count);
+      return count;
+    }
+  }
+
+  @NonNull
+  private static Thread startPump(@NonNull final BodyPipe pipe, @NonNull final InputStream source) {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        pipe.pump(source);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  @NonNull
+  private static byte[] readAll(@NonNull InputStream input) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1000];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      result.write(buffer, 0, read);
+    }
+    return result.toByteArray();
+  }
+
+  @Test(timeout = TIMEOUT_MS)
+  public void transfersWholeStream() throws Exception {
+    byte[] data = new byte[1024 * 1024 + 7];
+    new Random(1).nextBytes(data);
+    BodyPipe pipe = new BodyPipe(new Deadline(TIMEOUT_MS));
+    Thread pump = startPump(pipe, new ByteArrayInputStream(data));
+    assertArrayEquals(data, readAll(pipe.getInput()));
+    assertEquals(-1, pipe.getInput().read());
+    pump.join();
+  }
+
+  @Test(timeout = TIMEOUT_MS)
+  public void slowReaderThrottlesDownload() throws Exception {
+    BodyPipe pipe = new BodyPipe(new Deadline(TIMEOUT_MS));
+    EndlessStream source = new EndlessStream();
+    Thread pump = startPump(pipe, source);
+    Thread.sleep(500);
+    long buffered = source.bytesRead.get();
+    assertTrue("Pipe buffered " + buffered + " bytes", buffered < 1024 * 1024);
+    Thread.sleep(500);
+    assertEquals(buffered, source.bytesRead.get());
+
+    // closed reader stops download
+    pipe.getInput().close();
+    pump.join();
+  }
+
+  @Test(timeout = TIMEOUT_MS)
+  public void downloadErrorReachesReader() throws Exception {
+    final IOException error = new IOException("Connection reset");
+    InputStream source = new InputStream() {
+      private int left = 100;
+
+      @Override
+      public int read() throws IOException {
+        if (left-- <= 0) {
+          throw error;
+        }
+        return 'a';
+      }
+    };
+    BodyPipe pipe = new BodyPipe(new Deadline(TIMEOUT_MS));
+    startPump(pipe, source).join();
+    InputStream input = pipe.getInput();
+    try {
+      readAll(input);
+      fail("Download error swallowed");
+    } catch (IOException exception) {
+      assertSame(error, exception);
+    }
+  }
+
+  @Test(timeout = TIMEOUT_MS)
+  public void cancelledDeadlineUnblocksBothSides() throws Exception {
+    Deadline deadline = new Deadline(TIMEOUT_MS);
+    BodyPipe pipe = new BodyPipe(deadline);
+    Thread pump = startPump(pipe, new EndlessStream());
+    Thread.sleep(200);
+    deadline.cancel();
+    pump.join();
+    assertFalse(pump.isAlive());
+
+    // reader waiting for data that never comes gives up as well
+    BodyPipe silent = new BodyPipe(deadline);
+    try {
+      silent.getInput().read();
+      fail("Read from cancelled pipe succeeded");
+    } catch (Deadline.ExceededException ignored) {}
+  }
+}
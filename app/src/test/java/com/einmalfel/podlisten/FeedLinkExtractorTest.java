@@ -0,0 +1,96 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FeedLinkExtractorTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String BASE = "http://example.com/podcast/index.html";
+  /** Same as FeedLinkExtractor.MAX_PAGE_SIZE */
+  private static final int MAX_PAGE_SIZE = 256 * 1024;
+
+  @NonNull
+  private static List<String> extract(@NonNull String page) throws IOException {
+    return new ArrayList<>(FeedLinkExtractor.extract(
+        new ByteArrayInputStream(page.getBytes(UTF_8)), new URL(BASE)));
+  }
+
+  @NonNull
+  private static String padding(int length) {
+    char[] result = new char[length];
+    Arrays.fill(result, 'a');
+    return new String(result);
+  }
+
+  @Test
+  public void resolvesRelativeLinks() throws IOException {
+    String page = "<html><head>" +
+        "<link rel=\"alternate\" type=\"application/rss+xml\" href=\"feed.xml\">" +
+        "<link rel='alternate' type='application/rss+xml' href='/rss?format=mp3&amp;page=1'>" +
+        "<link rel=alternate type=application/rss+xml href=//cdn.example.org/feed>" +
+        "<link rel=\"alternate\" type=\"application/atom+xml\" href=\"https://example.net/atom\">" +
+        "</head><body></body></html>";
+    assertEquals(Arrays.asList("http://example.com/podcast/feed.xml",
+                               "http://example.com/rss?format=mp3&page=1",
+                               "http://cdn.example.org/feed",
+                               "https://example.net/atom"),
+                 extract(page));
+  }
+
+  @Test
+  public void skipsNonFeedLinks() throws IOException {
+    String page = "<html><body>" +
+        "<a href=\"/about\">About</a>" +
+        "<a href=\"#rss\">Anchor</a>" +
+        "<a href=\"mailto:feed@example.com\">Mail</a>" +
+        "<a href=\"ftp://example.com/feed.xml\">FTP</a>" +
+        "<a href=\"" + BASE + "\" class=\"rss\">Self</a>" +
+        "<a class=\"rss\">No link</a>" +
+        "</body></html>";
+    assertEquals(Collections.<String>emptyList(), extract(page));
+  }
+
+  @Test
+  public void stopsAtEndOfHeadIfLinksFoundThere() throws IOException {
+    String page = "<html><head>" +
+        "<link rel=\"alternate\" type=\"application/rss+xml\" href=\"/feed\">" +
+        "</head><body><a href=\"/other/rss\">RSS</a></body></html>";
+    assertEquals(Collections.singletonList("http://example.com/feed"), extract(page));
+    // head without closing tag
+    String unclosed = "<html>" +
+        "<link rel=\"alternate\" type=\"application/rss+xml\" href=\"/feed\">" +
+        "<body><a href=\"/other/rss\">RSS</a></body></html>";
+    assertEquals(Collections.singletonList("http://example.com/feed"), extract(unclosed));
+  }
+
+  @Test
+  public void scansBodyIfHeadHasNoLinks() throws IOException {
+    String page = "<html><head><title>Podcast</title></head><body>" +
+        "<p>Subscribe:</p><a href=\"/feed/mp3\">MP3</a><a href=\"/feed/ogg\">OGG</a>" +
+        "</body></html>";
+    assertEquals(Arrays.asList("http://example.com/feed/mp3", "http://example.com/feed/ogg"),
+                 extract(page));
+  }
+
+  @Test
+  public void scansOnlyBeginningOfPage() throws IOException {
+    String link = "<a href=\"/feed\">RSS</a>";
+    String prefix = "<html><body><p>";
+    String near = prefix + padding(MAX_PAGE_SIZE - prefix.length() - link.length()) + link;
+    assertEquals(Collections.singletonList("http://example.com/feed"), extract(near));
+    String far = prefix + padding(MAX_PAGE_SIZE - prefix.length()) + link;
+    assertEquals(Collections.<String>emptyList(), extract(far));
+  }
+}
@@ -0,0 +1,260 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FeedParserTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String RSS2 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+      "<rss version=\"2.0\" xmlns:itunes=\"http://www.itunes.com/dtds/podcast-1.0.dtd\"" +
+      " xmlns:content=\"http://purl.org/rss/1.0/modules/content/\">" +
+      "<channel>" +
+      "<title>RSS 2 podcast</title>" +
+      "<link>http://example.com/</link>" +
+      "<description>Channel &lt;b&gt;description&lt;/b&gt;</description>" +
+      "<image><url>http://example.com/small.png</url></image>" +
+      "<itunes:image href=\"http://example.com/big.png\"/>" +
+      "<item>" +
+      "<title>Second</title>" +
+      "<link>http://example.com/2</link>" +
+      "<guid isPermaLink=\"false\">guid-2</guid>" +
+      "<pubDate>Tue, 02 Jun 2015 10:00:00 +0000</pubDate>" +
+      "<content:encoded><![CDATA[<p>Full notes</p>]]></content:encoded>" +
+      "<enclosure url=\"http://example.com/2.mp3\" length=\"12345\" type=\"audio/mpeg\"/>" +
+      "<itunes:image href=\"http://example.com/2.png\"/>" +
+      "</item>" +
+      "<item>" +
+      "<title>First</title>" +
+      "<description>Short notes</description>" +
+      "<pubDate>Mon, 1 Jun 2015 10:00 GMT</pubDate>" +
+      "<enclosure url=\" http://example.com/1.mp3 \" length=\"bogus\" type=\"audio/mpeg\"/>" +
+      "</item>" +
+      "</channel>" +
+      "</rss>";
+
+  private static final String RSS1 = "<?xml version=\"1.0\"?>" +
+      "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"" +
+      " xmlns=\"http://purl.org/rss/1.0/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">" +
+      "<channel rdf:about=\"http://example.com/\">" +
+      "<title>RSS 1 podcast</title>" +
+      "<link>http://example.com/</link>" +
+      "<description>RSS 1 description</description>" +
+      "</channel>" +
+      "<item rdf:about=\"http://example.com/1\">" +
+      "<title>Item</title>" +
+      "<link>http://example.com/1.ogg</link>" +
+      "<dc:date>2015-06-01T10:00:00+03:00</dc:date>" +
+      "</item>" +
+      "</rdf:RDF>";
+
+  private static final String ATOM = "<?xml version=\"1.0\" encoding=\"utf-8\"?>" +
+      "<feed xmlns=\"http://www.w3.org/2005/Atom\">" +
+      "<title>Atom podcast</title>" +
+      "<subtitle>Atom description</subtitle>" +
+      "<link rel=\"self\" href=\"http://example.com/feed.atom\"/>" +
+      "<link href=\"http://example.com/\"/>" +
+      "<icon>http://example.com/icon.png</icon>" +
+      "<entry>" +
+      "<title>Entry</title>" +
+      "<id>urn:uuid:1</id>" +
+      "<link href=\"http://example.com/entry\"/>" +
+      "<link rel=\"enclosure\" type=\"audio/ogg\" length=\"100\"" +
+      " href=\"http://example.com/entry.ogg\"/>" +
+      "<updated>2015-06-01T10:00:00.123Z</updated>" +
+      "<content type=\"xhtml\"><div xmlns=\"http://www.w3.org/1999/xhtml\">" +
+      "<p class=\"a\">1 &lt; 2</p></div></content>" +
+      "</entry>" +
+      "</feed>";
+
+  private static class CollectingSink implements FeedParser.ItemSink {
+    final List<FeedParser.Item> items = new ArrayList<>();
+    final int stopAfter;
+
+    CollectingSink(int stopAfter) {
+      this.stopAfter = stopAfter;
+    }
+
+    @Override
+    public boolean onItem(@NonNull FeedParser.Item item) {
+      items.add(item);
+      return items.size() < stopAfter;
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    long bytesRead = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = super.read();
+      if (result != -1) {
+        bytesRead++;
+      }
+      return result;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+      int result = super.read(buffer, offset, count);
+      if (result > 0) {
+        bytesRead += result;
+      }
+      return result;
+    }
+  }
+
+  @NonNull
+  private static InputStream stream(@NonNull String feed) {
+    return new ByteArrayInputStream(feed.getBytes(UTF_8));
+  }
+
+  @NonNull
+  private static Date utc(int year, int month, int day, int hour, int minute, int second) {
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    calendar.clear();
+    calendar.set(year, month - 1, day, hour, minute, second);
+    return calendar.getTime();
+  }
+
+  @Test
+  public void parsesRss2() throws Exception {
+    CollectingSink sink = new CollectingSink(Integer.MAX_VALUE);
+    FeedParser.Channel channel = new FeedParser(1000).parse(stream(RSS2), sink);
+
+    assertEquals("RSS 2 podcast", channel.title);
+    assertEquals("http://example.com/", channel.link);
+    assertEquals("Channel <b>description</b>", channel.description);
+    assertEquals("http://example.com/big.png", channel.imageLink);
+    assertEquals(2, sink.items.size());
+
+    FeedParser.Item second = sink.items.get(0);
+    assertEquals("Second", second.title);
+    assertEquals("http://example.com/2", second.link);
+    assertEquals("guid-2", second.id);
+    assertEquals("<p>Full notes</p>", second.description);
+    assertEquals("http://example.com/2.png", second.imageLink);
+    assertEquals(utc(2015, 6, 2, 10, 0, 0), second.publicationDate);
+    assertEquals(1, second.enclosures.size());
+    assertEquals("http://example.com/2.mp3", second.enclosures.get(0).link);
+    assertEquals(Integer.valueOf(12345), second.enclosures.get(0).length);
+    assertEquals("audio/mpeg", second.enclosures.get(0).type);
+
+    FeedParser.Item first = sink.items.get(1);
+    assertNull(first.id);
+    assertEquals("Short notes", first.description);
+    assertEquals(utc(2015, 6, 1, 10, 0, 0), first.publicationDate);
+    assertEquals("http://example.com/1.mp3", first.enclosures.get(0).link);
+    assertNull(first.enclosures.get(0).length);
+  }
+
+  @Test
+  public void parsesRss1() throws Exception {
+    CollectingSink sink = new CollectingSink(Integer.MAX_VALUE);
+    FeedParser.Channel channel = new FeedParser(1000).parse(stream(RSS1), sink);
+
+    assertEquals("RSS 1 podcast", channel.title);
+    assertEquals("RSS 1 description", channel.description);
+    assertEquals(1, sink.items.size());
+    FeedParser.Item item = sink.items.get(0);
+    assertEquals("Item", item.title);
+    assertEquals("http://example.com/1.ogg", item.link);
+    assertTrue(item.enclosures.isEmpty());
+    assertEquals(utc(2015, 6, 1, 7, 0, 0), item.publicationDate);
+  }
+
+  @Test
+  public void parsesAtom() throws Exception {
+    CollectingSink sink = new CollectingSink(Integer.MAX_VALUE);
+    FeedParser.Channel channel = new FeedParser(1000).parse(stream(ATOM), sink);
+
+    assertEquals("Atom podcast", channel.title);
+    assertEquals("Atom description", channel.description);
+    assertEquals("http://example.com/", channel.link);
+    assertEquals("http://example.com/icon.png", channel.imageLink);
+    assertEquals(1, sink.items.size());
+    FeedParser.Item entry = sink.items.get(0);
+    assertEquals("urn:uuid:1", entry.id);
+    assertEquals("http://example.com/entry", entry.link);
+    assertEquals("http://example.com/entry.ogg", entry.enclosures.get(0).link);
+    assertEquals("audio/ogg", entry.enclosures.get(0).type);
+    assertEquals(Integer.valueOf(100), entry.enclosures.get(0).length);
+    // published date is missing, updated is used instead
+    assertEquals(utc(2015, 6, 1, 10, 0, 0), entry.publicationDate);
+    // xhtml content is reproduced as markup
+    assertEquals("<div><p class=\"a\">1 &lt; 2</p></div>", entry.description);
+  }
+
+  @Test
+  public void rejectsMalformedXml() throws Exception {
+    String truncated = RSS2.substring(0, RSS2.indexOf("</item>"));
+    try {
+      new FeedParser(1000).parse(stream(truncated), new CollectingSink(Integer.MAX_VALUE));
+      fail("Truncated feed parsed");
+    } catch (XmlPullParserException ignored) {}
+  }
+
+  @Test
+  public void rejectsNonFeedDocuments() throws Exception {
+    try {
+      new FeedParser(1000).parse(stream("<html><head><title>Page</title></head></html>"),
+                                 new CollectingSink(Integer.MAX_VALUE));
+      fail("Web-page parsed as feed");
+    } catch (XmlPullParserException ignored) {}
+    try {
+      new FeedParser(1000).parse(stream("Not XML at all"), new CollectingSink(Integer.MAX_VALUE));
+      fail("Plain text parsed as feed");
+    } catch (XmlPullParserException ignored) {}
+  }
+
+  @Test
+  public void stopsWhenSinkAsks() throws Exception {
+    StringBuilder feed = new StringBuilder("<rss><channel><title>Big</title>");
+    for (int i = 0; i < 10000; i++) {
+      feed.append("<item><guid>").append(i).append("</guid>")
+          .append("<enclosure url=\"http://example.com/").append(i).append(".mp3\"/></item>");
+    }
+    // channel fields after items aren't read if parsing stops early
+    feed.append("<link>http://example.com/</link></channel></rss>");
+    CountingInputStream input = new CountingInputStream(stream(feed.toString()));
+    CollectingSink sink = new CollectingSink(3);
+
+    FeedParser.Channel channel = new FeedParser(1000).parse(input, sink);
+
+    assertEquals(3, sink.items.size());
+    assertEquals("2", sink.items.get(2).id);
+    assertEquals("Big", channel.title);
+    assertNull(channel.link);
+    assertTrue("Rest of the stream was read: " + input.bytesRead,
+               input.bytesRead < feed.length() / 10);
+  }
+
+  @Test
+  public void stopsAtMaxItems() throws Exception {
+    CollectingSink sink = new CollectingSink(Integer.MAX_VALUE);
+    new FeedParser(1).parse(stream(RSS2), sink);
+    assertEquals(1, sink.items.size());
+  }
+}
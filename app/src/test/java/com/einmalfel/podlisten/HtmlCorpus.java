@@ -0,0 +1,106 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Golden corpus of {@link HtmlSimplifier} stored in test resources, see html/corpus.txt */
+class HtmlCorpus {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  static class Case {
+    final String name;
+    /** Intended difference from legacy simplifier output or null if outputs are the same */
+    final String difference;
+
+    Case(@NonNull String name, @Nullable String difference) {
+      this.name = name;
+      this.difference = difference;
+    }
+
+    @NonNull
+    String input() throws IOException {
+      return readOrThrow(name + ".html");
+    }
+
+    @NonNull
+    String expectedHtml() throws IOException {
+      return readOrThrow(name + ".out.html");
+    }
+
+    @NonNull
+    String expectedText() throws IOException {
+      return readOrThrow(name + ".out.txt");
+    }
+
+    /** @return output of legacy simplifier, that is the expected one if there is no difference */
+    @NonNull
+    String legacyHtml() throws IOException {
+      String legacy = read(name + ".legacy.html");
+      return legacy == null ? expectedHtml() : legacy;
+    }
+
+    @NonNull
+    String legacyText() throws IOException {
+      String legacy = read(name + ".legacy.txt");
+      return legacy == null ? expectedText() : legacy;
+    }
+
+    boolean hasLegacyOutput() throws IOException {
+      return read(name + ".legacy.html") != null || read(name + ".legacy.txt") != null;
+    }
+  }
+
+  @NonNull
+  static List<Case> cases() throws IOException {
+    List<Case> result = new ArrayList<>();
+    for (String line : readOrThrow("corpus.txt").split("\n")) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      int colon = line.indexOf(':');
+      if (colon < 0) {
+        result.add(new Case(line, null));
+      } else {
+        result.add(new Case(line.substring(0, colon).trim(), line.substring(colon + 1).trim()));
+      }
+    }
+    return result;
+  }
+
+  @NonNull
+  private static String readOrThrow(@NonNull String fileName) throws IOException {
+    String result = read(fileName);
+    if (result == null) {
+      throw new IOException("Corpus file missing: " + fileName);
+    }
+    return result;
+  }
+
+  /** @return content of corpus file or null if there is no such file */
+  @Nullable
+  private static String read(@NonNull String fileName) throws IOException {
+    InputStream input = HtmlCorpus.class.getResourceAsStream("/html/" + fileName);
+    if (input == null) {
+      return null;
+    }
+    try {
+      ByteArrayOutputStream result = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        result.write(buffer, 0, read);
+      }
+      return new String(result.toByteArray(), UTF_8);
+    } finally {
+      input.close();
+    }
+  }
+}
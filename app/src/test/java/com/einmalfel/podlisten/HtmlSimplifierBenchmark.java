@@ -0,0 +1,74 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link HtmlSimplifier} with legacy regex-based simplifier on descriptions made of
+ * growing number of golden corpus copies. Prints timings, fails if new simplifier is slower or if
+ * its time grows much faster than description length.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class HtmlSimplifierBenchmark {
+  private static final int[] COPIES = {1, 4, 16};
+  private static final long MIN_MEASURE_NS = 300 * 1000 * 1000;
+  private static final int WARM_UP_RUNS = 20;
+
+  /** @return average time of one simplification in nanoseconds */
+  private static long measure(@NonNull String description, boolean legacy) {
+    int runs = 0;
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      if (legacy) {
+        LegacyHtmlSimplifier.simplifyHTML(description);
+      } else {
+        HtmlSimplifier.simplify(description);
+      }
+      runs++;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < MIN_MEASURE_NS);
+    return elapsed / runs;
+  }
+
+  @Test
+  public void fasterThanLegacy() throws IOException {
+    StringBuilder corpus = new StringBuilder();
+    for (HtmlCorpus.Case corpusCase : HtmlCorpus.cases()) {
+      corpus.append("<p>").append(corpusCase.input()).append("</p>\n");
+    }
+    for (int i = 0; i < WARM_UP_RUNS; i++) {
+      LegacyHtmlSimplifier.simplifyHTML(corpus.toString());
+      HtmlSimplifier.simplify(corpus.toString());
+    }
+
+    long[] times = new long[COPIES.length];
+    for (int i = 0; i < COPIES.length; i++) {
+      StringBuilder description = new StringBuilder(corpus.length() * COPIES[i]);
+      for (int copy = 0; copy < COPIES[i]; copy++) {
+        description.append(corpus);
+      }
+      long legacy = measure(description.toString(), true);
+      times[i] = measure(description.toString(), false);
+      System.out.println(String.format(
+          Locale.US, "%7d chars: legacy %9.3f ms, HtmlSimplifier %9.3f ms",
+          description.length(), legacy / 1e6, times[i] / 1e6));
+      assertTrue("Slower than legacy on " + description.length() + " chars", times[i] < legacy);
+    }
+    for (int i = 1; i < COPIES.length; i++) {
+      long growth = times[i] / times[i - 1];
+      assertTrue("Time grows " + growth + " times on " + COPIES[i] / COPIES[i - 1] +
+                     " times longer description", growth < 3 * COPIES[i] / COPIES[i - 1]);
+    }
+  }
+}
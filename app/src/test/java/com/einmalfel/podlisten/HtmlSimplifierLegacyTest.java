@@ -0,0 +1,25 @@
+package com.einmalfel.podlisten;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/** Checks that golden corpus really is output of legacy simplifier, except listed differences */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class HtmlSimplifierLegacyTest {
+  @Test
+  public void corpusMatchesLegacySimplifier() throws IOException {
+    for (HtmlCorpus.Case corpusCase : HtmlCorpus.cases()) {
+      String html = LegacyHtmlSimplifier.simplifyHTML(corpusCase.input());
+      assertEquals(corpusCase.name, corpusCase.legacyHtml(), html);
+      assertEquals(corpusCase.name, corpusCase.legacyText(),
+                   LegacyHtmlSimplifier.getShortDescription(html));
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package com.einmalfel.podlisten;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HtmlSimplifierTest {
+  @Test
+  public void matchesGoldenCorpus() throws IOException {
+    for (HtmlCorpus.Case corpusCase : HtmlCorpus.cases()) {
+      String html = HtmlSimplifier.simplify(corpusCase.input());
+      assertEquals(corpusCase.name, corpusCase.expectedHtml(), html);
+      assertEquals(corpusCase.name, corpusCase.expectedText(),
+                   HtmlSimplifier.toPlainText(html, Provider.SHORT_DESCR_LENGTH));
+    }
+  }
+
+  @Test
+  public void everyDifferenceFromLegacyIsListed() throws IOException {
+    for (HtmlCorpus.Case corpusCase : HtmlCorpus.cases()) {
+      assertEquals(corpusCase.name, corpusCase.difference != null, corpusCase.hasLegacyOutput());
+      if (corpusCase.difference != null) {
+        assertTrue(corpusCase.name, !corpusCase.legacyHtml().equals(corpusCase.expectedHtml()) ||
+            !corpusCase.legacyText().equals(corpusCase.expectedText()));
+      }
+    }
+  }
+
+  @Test
+  public void skipsScriptRegardlessOfCase() {
+    assertEquals("before after",
+                 HtmlSimplifier.simplify("before <SCRIPT>var a = '<p>';</Script>after"));
+    // unterminated script hides the rest of description
+    assertEquals("text", HtmlSimplifier.simplify("text<style>p {}"));
+  }
+
+  @Test
+  public void keepsTextOutsideOfTags() {
+    assertEquals("1 &lt; 2 &amp;&amp; 3 &gt; 2",
+                 HtmlSimplifier.simplify("1 < 2 && 3 > 2"));
+    assertEquals("AT&amp;T", HtmlSimplifier.simplify("AT&T"));
+  }
+
+  @Test
+  public void truncatesPlainText() {
+    assertEquals("ab\nc", HtmlSimplifier.toPlainText("<b>ab</b><br/>c&amp;d", 4));
+    assertEquals("a&b", HtmlSimplifier.toPlainText("a&amp;b", 10));
+  }
+}
@@ -0,0 +1,251 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Runs {@link HttpClient} against a local HTTP server */
+public class HttpClientTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String BODY = "<rss><channel><title>Feed</title></channel></rss>";
+
+  private HttpServer server;
+  private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+  private final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+
+  /** Serves given status, headers and body, records request line and client port */
+  private void serve(@NonNull String path, final int code, @NonNull final String[] headers,
+                     final byte[] body) {
+    server.createContext(path, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.add(exchange.getRequestMethod() + ' ' + exchange.getRequestURI() + ' ' +
+                         exchange.getRequestHeaders().getFirst("Accept-Encoding") + ' ' +
+                         exchange.getRequestHeaders().getFirst("If-None-Match"));
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        for (int i = 0; i < headers.length; i += 2) {
+          exchange.getResponseHeaders().add(headers[i], headers[i + 1]);
+        }
+        boolean noBody = body == null || "HEAD".equals(exchange.getRequestMethod());
+        exchange.sendResponseHeaders(code, noBody ? -1 : body.length);
+        if (!noBody) {
+          OutputStream output = exchange.getResponseBody();
+          output.write(body);
+          output.close();
+        }
+        exchange.close();
+      }
+    });
+  }
+
+  @NonNull
+  private URL url(@NonNull String path) throws IOException {
+    return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+  }
+
+  @NonNull
+  private static String read(@NonNull HttpClient.Response response) throws IOException {
+    InputStream body = response.getBody();
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int read;
+    while ((read = body.read(buffer)) != -1) {
+      result.write(buffer, 0, read);
+    }
+    return new String(result.toByteArray(), UTF_8);
+  }
+
+  @NonNull
+  private static byte[] gzip(@NonNull String text) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    GZIPOutputStream output = new GZIPOutputStream(result);
+    output.write(text.getBytes(UTF_8));
+    output.close();
+    return result.toByteArray();
+  }
+
+  @NonNull
+  private static byte[] deflate(@NonNull String text, boolean raw) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    DeflaterOutputStream output = new DeflaterOutputStream(
+        result, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+    output.write(text.getBytes(UTF_8));
+    output.close();
+    return result.toByteArray();
+  }
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void decodesGzip() throws IOException {
+    serve("/gzip", 200, new String[]{"Content-Encoding", "gzip"}, gzip(BODY));
+    HttpClient.Response response = HttpClient.execute(new HttpClient.Request(url("/gzip")));
+    try {
+      assertEquals(BODY, read(response));
+    } finally {
+      response.close();
+    }
+    assertEquals("GET /gzip gzip, deflate null", requests.get(0));
+  }
+
+  @Test
+  public void decodesZlibAndRawDeflate() throws IOException {
+    serve("/zlib", 200, new String[]{"Content-Encoding", "deflate"}, deflate(BODY, false));
+    serve("/raw", 200, new String[]{"Content-Encoding", "deflate"}, deflate(BODY, true));
+    for (String path : new String[]{"/zlib", "/raw"}) {
+      HttpClient.Response response = HttpClient.execute(new HttpClient.Request(url(path)));
+      try {
+        assertEquals(path, BODY, read(response));
+      } finally {
+        response.close();
+      }
+    }
+  }
+
+  @Test
+  public void passesUncompressedBody() throws IOException {
+    serve("/plain", 200, new String[0], BODY.getBytes(UTF_8));
+    HttpClient.Response response = HttpClient.execute(new HttpClient.Request(url("/plain")));
+    try {
+      assertEquals(BODY, read(response));
+      assertEquals(200, response.code);
+      assertFalse(response.permanentlyRedirected);
+    } finally {
+      response.close();
+    }
+  }
+
+  @Test
+  public void followsRedirectChain() throws IOException {
+    serve("/a", 301, new String[]{"Location", "/b"}, null);
+    serve("/b", 302, new String[]{"Location", url("/c").toString()}, null);
+    serve("/c", 200, new String[0], BODY.getBytes(UTF_8));
+    HttpClient.Response response = HttpClient.execute(new HttpClient.Request(url("/a")));
+    try {
+      assertEquals(BODY, read(response));
+      assertEquals(url("/c").toString(), response.url.toString());
+      // chain contains temporary redirect
+      assertFalse(response.permanentlyRedirected);
+    } finally {
+      response.close();
+    }
+    assertEquals(3, requests.size());
+  }
+
+  @Test
+  public void reportsPermanentRedirects() throws IOException {
+    serve("/old", 301, new String[]{"Location", "/older"}, null);
+    serve("/older", 308, new String[]{"Location", "/new"}, null);
+    serve("/new", 200, new String[0], BODY.getBytes(UTF_8));
+    HttpClient.Response response = HttpClient.execute(new HttpClient.Request(url("/old")));
+    try {
+      assertTrue(response.permanentlyRedirected);
+      assertEquals(url("/new").toString(), response.url.toString());
+    } finally {
+      response.close();
+    }
+  }
+
+  @Test
+  public void limitsRedirects() throws IOException {
+    serve("/loop", 302, new String[]{"Location", "/loop"}, null);
+    try {
+      HttpClient.execute(new HttpClient.Request(url("/loop"))).close();
+      fail("Redirect loop followed");
+    } catch (IOException exception) {
+      assertTrue(exception.getMessage().startsWith("Too many redirects"));
+    }
+  }
+
+  @Test
+  public void sendsValidatorsAndHandlesNotModified() throws IOException {
+    serve("/feed", 304, new String[0], null);
+    HttpClient.Response response = HttpClient.execute(
+        new HttpClient.Request(url("/feed")).conditional("\"v1\"", "Mon, 01 Jun 2015 10:00 GMT"));
+    try {
+      assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, response.code);
+    } finally {
+      response.close();
+    }
+    assertEquals("GET /feed gzip, deflate \"v1\"", requests.get(0));
+  }
+
+  @Test
+  public void headReportsUncompressedLength() throws IOException {
+    serve("/episode.mp3", 200, new String[]{"Content-Length", "123456"}, null);
+    HttpClient.Response response = HttpClient.execute(
+        new HttpClient.Request(url("/episode.mp3")).head());
+    try {
+      assertEquals(200, response.code);
+      assertEquals(123456, response.getContentLength());
+    } finally {
+      response.close();
+    }
+    assertEquals("HEAD /episode.mp3 identity null", requests.get(0));
+  }
+
+  @Test
+  public void closedResponsesReuseConnection() throws IOException {
+    serve("/feed", 200, new String[0], BODY.getBytes(UTF_8));
+    for (int i = 0; i < 3; i++) {
+      HttpClient.Response response = HttpClient.execute(new HttpClient.Request(url("/feed")));
+      try {
+        read(response);
+      } finally {
+        response.close();
+      }
+    }
+    assertEquals(3, clientPorts.size());
+    assertEquals(clientPorts.get(0), clientPorts.get(1));
+    assertEquals(clientPorts.get(0), clientPorts.get(2));
+  }
+
+  @Test
+  public void errorResponseHasNoBody() throws IOException {
+    serve("/missing", 404, new String[0], "Not found".getBytes(UTF_8));
+    HttpClient.Response response = HttpClient.execute(new HttpClient.Request(url("/missing")));
+    try {
+      assertEquals(404, response.code);
+      response.getBody();
+      fail("Error body returned");
+    } catch (IOException ignored) {
+    } finally {
+      response.close();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.einmalfel.podlisten;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KnownRunDetectorTest {
+  private static final long DAY = 24 * 60 * 60 * 1000;
+
+  @Test
+  public void stopsAfterRunOfKnownItems() {
+    KnownRunDetector detector = new KnownRunDetector(3);
+    long date = 100 * DAY;
+    detector.onDate(new Date(date));
+    assertFalse(detector.onItem(false));
+    for (int i = 0; i < 2; i++) {
+      date -= DAY;
+      detector.onDate(new Date(date));
+      assertFalse(detector.onItem(true));
+    }
+    date -= DAY;
+    detector.onDate(new Date(date));
+    assertTrue(detector.onItem(true));
+  }
+
+  @Test
+  public void newItemResetsRun() {
+    KnownRunDetector detector = new KnownRunDetector(2);
+    assertFalse(detector.onItem(true));
+    assertFalse(detector.onItem(false));
+    assertFalse(detector.onItem(true));
+    assertTrue(detector.onItem(true));
+  }
+
+  @Test
+  public void undatedItemsDontBreakOrder() {
+    KnownRunDetector detector = new KnownRunDetector(2);
+    detector.onDate(new Date(2 * DAY));
+    detector.onDate(null);
+    detector.onDate(new Date(DAY));
+    assertTrue(detector.isSorted());
+  }
+
+  @Test
+  public void unsortedFeedIsParsedFully() {
+    KnownRunDetector detector = new KnownRunDetector(2);
+    detector.onDate(new Date(DAY));
+    assertFalse(detector.onItem(true));
+    // item newer than previous one reveals unsorted feed
+    detector.onDate(new Date(2 * DAY));
+    assertFalse(detector.isSorted());
+    for (int i = 0; i < 10; i++) {
+      detector.onDate(new Date(DAY - i));
+      assertFalse(detector.onItem(true));
+    }
+  }
+}
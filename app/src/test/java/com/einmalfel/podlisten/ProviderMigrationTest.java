@@ -0,0 +1,199 @@
+package com.einmalfel.podlisten;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Upgrades databases of older versions and compares them with the one created from scratch */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 21)
+public class ProviderMigrationTest {
+  /** Schema of version 1, as it was released. Don't use Provider constants here */
+  private static final String[] SCHEMA_V1 = {
+      "CREATE TABLE podcast (_ID INTEGER PRIMARY KEY,podcast_name TEXT," +
+          "podcast_description TEXT,podcast_short_description TEXT,podcast_state INTEGER," +
+          "podcast_refresh_mode INTEGER,podcast_add_timestamp INTEGER,podcast_url TEXT," +
+          "feed_url TEXT,podcast_error TEXT,podcast_timestamp INTEGER)",
+      "CREATE TABLE episode (_ID INTEGER PRIMARY KEY,episode_name TEXT," +
+          "episode_description TEXT,episode_short_description TEXT,episode_url TEXT," +
+          "audio_url TEXT,episode_error TEXT,publication_date INTEGER,download_finished INTEGER," +
+          "download_attempts INTEGER,download_id INTEGER,episode_state INTEGER," +
+          "episode_timestamp INTEGER,episode_played INTEGER,episode_length INTEGER," +
+          "episode_size INTEGER,episode_download_timestamp INTEGER,podcast_id INTEGER," +
+          "FOREIGN KEY(podcast_id) REFERENCES podcast(_ID))"};
+  /** Changes of versions 2-6 applied on top of {@link #SCHEMA_V1} */
+  private static final String[] SCHEMA_V6_CHANGES = {
+      "ALTER TABLE podcast ADD COLUMN podcast_etag TEXT",
+      "ALTER TABLE podcast ADD COLUMN podcast_last_modified TEXT",
+      "ALTER TABLE podcast ADD COLUMN podcast_full_timestamp INTEGER",
+      "ALTER TABLE podcast ADD COLUMN podcast_hash TEXT",
+      "ALTER TABLE podcast ADD COLUMN podcast_next_refresh INTEGER",
+      "CREATE TABLE sync_session (_ID INTEGER PRIMARY KEY,sync_start INTEGER," +
+          "sync_result INTEGER,sync_new_episodes INTEGER)"};
+  private static final String[] EXPECTED_INDEXES = {
+      "index episode_state_date_idx ON episode(episode_state, publication_date)",
+      "index episode_state_length_idx ON episode(episode_state, episode_length)",
+      "index episode_podcast_date_idx ON episode(podcast_id, publication_date)",
+      "index episode_download_idx ON episode(download_id)",
+      "index tombstone_podcast_idx ON episode_tombstone(tombstone_podcast_id)"};
+  private static final String OLD_DB = "old.db";
+  private static final String NEW_DB = "new.db";
+
+  private Context context;
+  private Provider.HelperV1 oldHelper;
+  private Provider.HelperV1 newHelper;
+
+  @Before
+  public void setUp() {
+    context = RuntimeEnvironment.application;
+    oldHelper = new Provider.HelperV1(context, OLD_DB);
+    newHelper = new Provider.HelperV1(context, NEW_DB);
+  }
+
+  @After
+  public void tearDown() {
+    oldHelper.close();
+    newHelper.close();
+    context.deleteDatabase(OLD_DB);
+    context.deleteDatabase(NEW_DB);
+  }
+
+  @Test
+  public void upgradesFromVersion1() {
+    createOldDb(1, SCHEMA_V1);
+    checkUpgrade();
+  }
+
+  @Test
+  public void upgradesFromVersion6() {
+    createOldDb(6, SCHEMA_V1, SCHEMA_V6_CHANGES);
+    checkUpgrade();
+  }
+
+  @Test
+  public void createsIndexes() {
+    Set<String> schema = getSchema(newHelper.getReadableDatabase());
+    for (String index : EXPECTED_INDEXES) {
+      assertTrue(index + " missing in " + schema, schema.contains(index));
+    }
+  }
+
+  private void createOldDb(int version, String[]... statements) {
+    SQLiteDatabase db = context.openOrCreateDatabase(OLD_DB, Context.MODE_PRIVATE, null);
+    try {
+      for (String[] group : statements) {
+        for (String statement : group) {
+          db.execSQL(statement);
+        }
+      }
+      db.setVersion(version);
+      ContentValues podcast = new ContentValues();
+      podcast.put("_ID", 1);
+      podcast.put("podcast_name", "Podcast");
+      podcast.put("feed_url", "http://example.com/feed");
+      podcast.put("podcast_timestamp", 1000);
+      db.insertOrThrow("podcast", null, podcast);
+      ContentValues episode = new ContentValues();
+      episode.put("_ID", 2);
+      episode.put("episode_name", "Episode");
+      episode.put("episode_state", 0);
+      episode.put("publication_date", 500);
+      episode.put("podcast_id", 1);
+      db.insertOrThrow("episode", null, episode);
+    } finally {
+      db.close();
+    }
+  }
+
+  private void checkUpgrade() {
+    SQLiteDatabase db = oldHelper.getWritableDatabase();
+    assertEquals(Provider.HelperV1.VERSION, db.getVersion());
+    assertEquals(getSchema(newHelper.getReadableDatabase()), getSchema(db));
+
+    Cursor podcast = db.query(Provider.T_PODCAST, null, null, null, null, null, null);
+    try {
+      assertEquals(1, podcast.getCount());
+      podcast.moveToFirst();
+      assertEquals("Podcast", podcast.getString(podcast.getColumnIndexOrThrow(Provider.K_PNAME)));
+      assertEquals(1000, podcast.getLong(podcast.getColumnIndexOrThrow(Provider.K_PTSTAMP)));
+      assertTrue(podcast.isNull(podcast.getColumnIndexOrThrow(Provider.K_PTFILTER)));
+    } finally {
+      podcast.close();
+    }
+    Cursor episode = db.query(Provider.T_EPISODE, null, null, null, null, null, null);
+    try {
+      assertEquals(1, episode.getCount());
+      episode.moveToFirst();
+      assertEquals("Episode", episode.getString(episode.getColumnIndexOrThrow(Provider.K_ENAME)));
+      assertEquals(1, episode.getLong(episode.getColumnIndexOrThrow(Provider.K_EPID)));
+    } finally {
+      episode.close();
+    }
+  }
+
+  /**
+   * @return columns of tables and indexes in human-readable form. Column order is ignored, as
+   * migrations append new columns to the end of table
+   */
+  private static Set<String> getSchema(SQLiteDatabase db) {
+    Set<String> result = new TreeSet<>();
+    Cursor objects = db.rawQuery(
+        "SELECT type, name, tbl_name FROM sqlite_master WHERE name NOT LIKE 'sqlite_%' AND " +
+            "name != 'android_metadata'", null);
+    try {
+      while (objects.moveToNext()) {
+        String type = objects.getString(0);
+        String name = objects.getString(1);
+        if ("table".equals(type)) {
+          Cursor columns = db.rawQuery("PRAGMA table_info(" + name + ")", null);
+          try {
+            while (columns.moveToNext()) {
+              result.add("column " + name + '.' +
+                             columns.getString(columns.getColumnIndexOrThrow("name")) + ' ' +
+                             columns.getString(columns.getColumnIndexOrThrow("type")) +
+                             (columns.getInt(columns.getColumnIndexOrThrow("pk")) != 0 ?
+                                 " PRIMARY KEY" : ""));
+            }
+          } finally {
+            columns.close();
+          }
+        } else if ("index".equals(type)) {
+          StringBuilder index = new StringBuilder(
+              "index " + name + " ON " + objects.getString(2) + '(');
+          Cursor columns = db.rawQuery("PRAGMA index_info(" + name + ")", null);
+          try {
+            while (columns.moveToNext()) {
+              if (!columns.isFirst()) {
+                index.append(", ");
+              }
+              index.append(columns.getString(columns.getColumnIndexOrThrow("name")));
+            }
+          } finally {
+            columns.close();
+          }
+          result.add(index.append(')').toString());
+        } else {
+          result.add(type + ' ' + name);
+        }
+      }
+    } finally {
+      objects.close();
+    }
+    return result;
+  }
+}
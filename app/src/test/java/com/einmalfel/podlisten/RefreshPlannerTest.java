@@ -0,0 +1,83 @@
+package com.einmalfel.podlisten;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshPlannerTest {
+  private static final long MINUTE = 60 * 1000;
+  private static final long HOUR = 60 * MINUTE;
+  private static final long DAY = 24 * HOUR;
+  private static final long MAX_DELAY = 14 * DAY;
+  private static final long NOW = 1000 * DAY;
+
+  /** @return publication dates, newest first, of releases made every interval since latest */
+  private static long[] regular(long latest, long interval, int count) {
+    long[] result = new long[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = latest - i * interval;
+    }
+    return result;
+  }
+
+  @Test
+  public void refreshesAlwaysWithoutEnoughHistory() {
+    assertEquals(0, RefreshPlanner.getNextRefresh(new long[0], NOW, HOUR));
+    assertEquals(0, RefreshPlanner.getNextRefresh(new long[]{NOW - DAY}, NOW, HOUR));
+    // 3 releases make only 2 intervals
+    assertEquals(0, RefreshPlanner.getNextRefresh(regular(NOW - DAY, 7 * DAY, 3), NOW, HOUR));
+  }
+
+  @Test
+  public void refreshesFrequentFeedsAlways() {
+    assertEquals(0, RefreshPlanner.getNextRefresh(regular(NOW - HOUR, DAY, 10), NOW, DAY));
+    // releases twice per sync period exactly
+    assertEquals(0, RefreshPlanner.getNextRefresh(regular(NOW - HOUR, 2 * DAY, 10), NOW, DAY));
+  }
+
+  @Test
+  public void postponesUntilShortlyBeforeNextRelease() {
+    // weekly feed released 2 days ago: next release expected in 5 days, checking starts
+    // a quarter of interval earlier
+    long[] dates = regular(NOW - 2 * DAY, 7 * DAY, 5);
+    assertEquals(NOW + 5 * DAY - 7 * DAY / 4, RefreshPlanner.getNextRefresh(dates, NOW, HOUR));
+    // sync period longer than quarter of interval
+    assertEquals(NOW + 5 * DAY - 3 * DAY, RefreshPlanner.getNextRefresh(dates, NOW, 3 * DAY));
+  }
+
+  @Test
+  public void backsOffWhenReleaseIsOverdue() {
+    // weekly feed silent for 10 days: release is 3 days late, next check in 1.5 days
+    long[] dates = regular(NOW - 10 * DAY, 7 * DAY, 5);
+    assertEquals(NOW + 3 * DAY / 2, RefreshPlanner.getNextRefresh(dates, NOW, HOUR));
+    // the longer feed is silent, the longer the delay
+    long later = NOW + 4 * DAY;
+    assertEquals(later + 7 * DAY / 2, RefreshPlanner.getNextRefresh(dates, later, HOUR));
+  }
+
+  @Test
+  public void delayIsCappedByMaxDelay() {
+    // monthly feed released yesterday
+    long[] monthly = regular(NOW - DAY, 30 * DAY, 5);
+    assertEquals(NOW + MAX_DELAY, RefreshPlanner.getNextRefresh(monthly, NOW, HOUR));
+    // weekly feed dormant for 100 days
+    long[] dormant = regular(NOW - 100 * DAY, 7 * DAY, 5);
+    assertEquals(NOW + MAX_DELAY, RefreshPlanner.getNextRefresh(dormant, NOW, HOUR));
+  }
+
+  @Test
+  public void groupsEpisodesOfSameRelease() {
+    long[] weekly = regular(NOW - 2 * DAY, 7 * DAY, 4);
+    // same weekly releases, each consisting of 3 episodes published within an hour
+    long[] grouped = new long[weekly.length * 3];
+    for (int i = 0; i < weekly.length; i++) {
+      grouped[3 * i] = weekly[i];
+      grouped[3 * i + 1] = weekly[i] - 10 * MINUTE;
+      grouped[3 * i + 2] = weekly[i] - 50 * MINUTE;
+    }
+    long expected = RefreshPlanner.getNextRefresh(weekly, NOW, HOUR);
+    assertTrue(expected > NOW);
+    assertEquals(expected, RefreshPlanner.getNextRefresh(grouped, NOW, HOUR));
+  }
+}
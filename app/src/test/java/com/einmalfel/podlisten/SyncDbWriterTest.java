@@ -0,0 +1,44 @@
+package com.einmalfel.podlisten;
+
+import android.os.RemoteException;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SyncDbWriterTest {
+  private static final Callable<Integer> JOB = new Callable<Integer>() {
+    @Override
+    public Integer call() {
+      return 42;
+    }
+  };
+
+  @Test(timeout = 10 * 1000)
+  public void executesJobs() throws Exception {
+    SyncDbWriter writer = new SyncDbWriter();
+    Future<Integer> result = writer.submit(JOB);
+    writer.shutdown();
+    assertEquals(Integer.valueOf(42), SyncDbWriter.getResult(result));
+  }
+
+  @Test(timeout = 10 * 1000)
+  public void submitAfterStopDoesNotBlock() throws Exception {
+    SyncDbWriter writer = new SyncDbWriter();
+    writer.shutdown();
+    // more jobs than queue holds, none of them should wait for stopped writer
+    for (int i = 0; i < 100; i++) {
+      Future<Integer> result = writer.submit(JOB);
+      assertTrue(result.isCancelled());
+      try {
+        SyncDbWriter.getResult(result);
+        fail("Job executed by stopped writer");
+      } catch (RemoteException ignored) {}
+    }
+  }
+}
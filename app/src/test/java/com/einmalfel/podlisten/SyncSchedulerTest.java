@@ -0,0 +1,153 @@
+package com.einmalfel.podlisten;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncSchedulerTest {
+  private static final long TIMEOUT_S = 5;
+
+  /** Tasks wait for this before finishing, so test controls what is running */
+  private CountDownLatch gate;
+  private List<Long> started;
+
+  @Before
+  public void setUp() {
+    gate = new CountDownLatch(1);
+    started = Collections.synchronizedList(new ArrayList<Long>());
+  }
+
+  @After
+  public void tearDown() {
+    gate.countDown();
+  }
+
+  @Test
+  public void limitsTasksPerHost() throws InterruptedException {
+    SyncScheduler scheduler = new SyncScheduler(4, 4);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    for (long id = 0; id < 6; id++) {
+      scheduler.submit(id, "http://example.com/feed" + id, new Runnable() {
+        @Override
+        public void run() {
+          int now = running.incrementAndGet();
+          synchronized (maxRunning) {
+            maxRunning.set(Math.max(maxRunning.get(), now));
+          }
+          await(gate);
+          running.decrementAndGet();
+        }
+      });
+    }
+    Thread.sleep(100);
+    assertEquals(2, running.get());
+    gate.countDown();
+    scheduler.shutdown();
+    assertTrue(scheduler.awaitTermination(TIMEOUT_S, TimeUnit.SECONDS));
+    assertEquals(2, maxRunning.get());
+  }
+
+  @Test
+  public void startsOtherHostsWhileOneIsAtLimit() throws InterruptedException {
+    SyncScheduler scheduler = new SyncScheduler(3, 3);
+    CountDownLatch otherHostStarted = new CountDownLatch(1);
+    scheduler.submit(1, "http://big.example.com/1", blocking(1, null));
+    scheduler.submit(2, "http://big.example.com/2", blocking(2, null));
+    scheduler.submit(3, "http://big.example.com/3", blocking(3, null));
+    scheduler.submit(4, "http://small.example.com/4", blocking(4, otherHostStarted));
+    assertTrue(otherHostStarted.await(TIMEOUT_S, TimeUnit.SECONDS));
+    assertFalse(started.contains(3L));
+    gate.countDown();
+    scheduler.shutdown();
+    assertTrue(scheduler.awaitTermination(TIMEOUT_S, TimeUnit.SECONDS));
+    assertEquals(4, started.size());
+  }
+
+  @Test
+  public void startsTasksInSubmissionOrder() throws InterruptedException {
+    SyncScheduler scheduler = new SyncScheduler(1, 1);
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    scheduler.submit(0, "http://a.example.com/0", blocking(0, firstStarted));
+    assertTrue(firstStarted.await(TIMEOUT_S, TimeUnit.SECONDS));
+    scheduler.submit(1, "http://b.example.com/1", blocking(1, null));
+    scheduler.submit(2, "http://a.example.com/2", blocking(2, null));
+    scheduler.submit(3, "http://c.example.com/3", blocking(3, null));
+    gate.countDown();
+    scheduler.shutdown();
+    assertTrue(scheduler.awaitTermination(TIMEOUT_S, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(0L, 1L, 2L, 3L), started);
+  }
+
+  @Test
+  public void prioritizedTasksStartFirst() throws InterruptedException {
+    SyncScheduler scheduler = new SyncScheduler(1, 1);
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    scheduler.submit(0, "http://a.example.com/0", blocking(0, firstStarted));
+    assertTrue(firstStarted.await(TIMEOUT_S, TimeUnit.SECONDS));
+    scheduler.submit(1, "http://a.example.com/1", blocking(1, null));
+    scheduler.submit(2, "http://b.example.com/2", blocking(2, null));
+    scheduler.submit(3, "http://c.example.com/3", blocking(3, null));
+    assertTrue(scheduler.prioritize(3));
+    // prioritized later, so goes before task 3
+    assertTrue(scheduler.prioritize(2));
+    assertFalse("task is already running", scheduler.prioritize(0));
+    assertFalse("unknown task", scheduler.prioritize(42));
+    gate.countDown();
+    scheduler.shutdown();
+    assertTrue(scheduler.awaitTermination(TIMEOUT_S, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList(0L, 2L, 3L, 1L), started);
+  }
+
+  @Test
+  public void shutdownNowReturnsDiscardedTasks() throws InterruptedException {
+    SyncScheduler scheduler = new SyncScheduler(1, 1);
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    scheduler.submit(0, "http://a.example.com/0", blocking(0, firstStarted));
+    assertTrue(firstStarted.await(TIMEOUT_S, TimeUnit.SECONDS));
+    Runnable second = blocking(1, null);
+    Runnable third = blocking(2, null);
+    scheduler.submit(1, "http://b.example.com/1", second);
+    scheduler.submit(2, "http://a.example.com/2", third);
+    assertTrue(scheduler.prioritize(2));
+    assertEquals(Arrays.asList(third, second), scheduler.shutdownNow());
+    assertTrue(scheduler.awaitTermination(TIMEOUT_S, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList(0L), started);
+  }
+
+  @NonNull
+  private Runnable blocking(final long id, final CountDownLatch startedLatch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        started.add(id);
+        if (startedLatch != null) {
+          startedLatch.countDown();
+        }
+        await(gate);
+      }
+    };
+  }
+
+  private static void await(@NonNull CountDownLatch latch) {
+    try {
+      latch.await(TIMEOUT_S, TimeUnit.SECONDS);
+    } catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package com.einmalfel.podlisten.support;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongBloomFilterTest {
+  private static final int SIZE = 1000;
+  private static final int PROBES = 100000;
+  /** Filter is designed for 1% rate, leave some room for random deviations */
+  private static final double MAX_FALSE_POSITIVE_RATE = 0.02;
+
+  /** @return random IDs spread over the whole long range, as episode IDs are */
+  private static long[] ids(int count, long seed) {
+    Random random = new Random(seed);
+    long[] result = new long[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = ((long) random.nextInt() << 32) | (random.nextInt() & 0xFFFFFFFFL);
+    }
+    return result;
+  }
+
+  @Test
+  public void hasNoFalseNegatives() {
+    LongBloomFilter filter = new LongBloomFilter(SIZE);
+    long[] added = ids(SIZE, 1);
+    for (long id : added) {
+      filter.add(id);
+    }
+    for (long id : added) {
+      assertTrue(Long.toString(id), filter.mightContain(id));
+    }
+    // sequential and extreme values
+    LongBloomFilter sequential = new LongBloomFilter(SIZE);
+    for (long id = -SIZE / 2; id < SIZE / 2; id++) {
+      sequential.add(id);
+    }
+    sequential.add(Long.MIN_VALUE);
+    sequential.add(Long.MAX_VALUE);
+    for (long id = -SIZE / 2; id < SIZE / 2; id++) {
+      assertTrue(Long.toString(id), sequential.mightContain(id));
+    }
+    assertTrue(sequential.mightContain(Long.MIN_VALUE));
+    assertTrue(sequential.mightContain(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void emptyFilterContainsNothing() {
+    LongBloomFilter filter = new LongBloomFilter(0);
+    for (long id : ids(SIZE, 2)) {
+      assertFalse(filter.mightContain(id));
+    }
+  }
+
+  @Test
+  public void survivesSerialization() {
+    LongBloomFilter filter = new LongBloomFilter(SIZE);
+    long[] added = ids(SIZE, 3);
+    for (long id : added) {
+      filter.add(id);
+    }
+    byte[] bytes = filter.toBytes();
+    LongBloomFilter restored = LongBloomFilter.fromBytes(bytes);
+    assertNotNull(restored);
+    assertArrayEquals(bytes, restored.toBytes());
+    for (long id : added) {
+      assertTrue(restored.mightContain(id));
+    }
+    for (long id : ids(SIZE, 4)) {
+      assertEquals(filter.mightContain(id), restored.mightContain(id));
+    }
+  }
+
+  @Test
+  public void rejectsMalformedData() {
+    assertNull(LongBloomFilter.fromBytes(null));
+    assertNull(LongBloomFilter.fromBytes(new byte[0]));
+    assertNull(LongBloomFilter.fromBytes(new byte[7]));
+    byte[] truncated = new LongBloomFilter(SIZE).toBytes();
+    assertNull(LongBloomFilter.fromBytes(Arrays.copyOf(truncated, truncated.length - 1)));
+  }
+
+  @Test
+  public void falsePositiveRateIsLow() {
+    LongBloomFilter filter = new LongBloomFilter(SIZE);
+    Set<Long> added = new HashSet<>();
+    for (long id : ids(SIZE, 5)) {
+      filter.add(id);
+      added.add(id);
+    }
+    int falsePositives = 0;
+    int probes = 0;
+    for (long id : ids(PROBES, 6)) {
+      if (added.contains(id)) {
+        continue;
+      }
+      probes++;
+      if (filter.mightContain(id)) {
+        falsePositives++;
+      }
+    }
+    double rate = (double) falsePositives / probes;
+    assertTrue("false positive rate " + rate, rate < MAX_FALSE_POSITIVE_RATE);
+  }
+}